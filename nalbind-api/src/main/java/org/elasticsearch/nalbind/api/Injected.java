@@ -43,6 +43,11 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
  * }
  *}
  *
+ * <p>
+ * Alternatively, the parameter can be a listener interface, all of whose abstract methods return <code>void</code>.
+ * The injector then passes a single object of that type that calls each method on every singleton that implements it,
+ * in turn. Unlike a loop over a collection, each of those calls is a call site of its own, which the JIT can inline.
+ * If singletons of that type are added later, the method is called again with an object that calls all of them.
  */
 @Target(METHOD)
 @Retention(RUNTIME)
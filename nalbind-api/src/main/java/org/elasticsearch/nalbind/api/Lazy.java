@@ -0,0 +1,25 @@
+package org.elasticsearch.nalbind.api;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks an {@link InjectableSingleton} to be instantiated the first time it's used,
+ * rather than when the injector is created.
+ * <p>
+ * Objects that depend on a lazy singleton receive a proxy for it,
+ * and the singleton is instantiated, along with any <code>@Now</code> dependencies it has,
+ * the first time a method is called on the proxy or the injector is asked for it.
+ * This happens exactly once, even if several threads use the singleton at the same time.
+ * <p>
+ * A lazy singleton is instantiated eagerly after all if some other eager singleton needs it immediately:
+ * as a {@link Now @Now} parameter, as a parameter whose type is not an interface and so can't be proxied,
+ * or as one of the objects passed to an {@link Injected @Injected} method.
+ */
+@Target(TYPE)
+@Retention(RUNTIME)
+public @interface Lazy {
+}
@@ -0,0 +1,66 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Compares creating a {@link Injector#createChild child} injector for a few scoped classes
+ * with the alternative of injecting the whole graph again.
+ * <p>
+ * The scoped classes are the top layer of an acyclic {@link SyntheticGraph},
+ * so all their dependencies are in the parent.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+public class ChildInjectorBench {
+
+	@State(Scope.Benchmark)
+	public static class Graph {
+		@Param({"1000", "10000"})
+		int nodes;
+
+		@Param({"1", "10"})
+		int scoped;
+
+		List<Class<?>> classes;
+		List<Class<?>> scopedClasses;
+		Injector parent;
+
+		@Setup
+		public void setup() {
+			classes = SyntheticGraph.defaults()
+				.nodes(nodes)
+				.cycleDensity(0)
+				.listeners(0)
+				.listenerRegistries(0)
+				.generate();
+			scopedClasses = classes.subList(nodes - scoped, nodes);
+			parent = Injector.withClasses(classes.subList(0, nodes - scoped));
+		}
+	}
+
+	@Benchmark
+	public Injector createChild(Graph graph) {
+		return graph.parent.createChild(graph.scopedClasses);
+	}
+
+	@Benchmark
+	public Injector withClasses(Graph graph) {
+		return Injector.withClasses(graph.classes);
+	}
+}
@@ -0,0 +1,154 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openjdk.jmh.annotations.Mode.SingleShotTime;
+
+/**
+ * Compares the cold start of a JVM that builds an injector for a {@link SyntheticGraph} and exits,
+ * with and without a class data sharing archive that includes the classes the injector generates.
+ * <p>
+ * Each invocation launches a fresh JVM running {@link #main}, so the times include JVM startup.
+ * The archive is trained once per trial, as an application would do it at build time:
+ * one run {@link InjectorOptions#exportGeneratedClasses exports} the generated classes, which are packaged as a jar,
+ * and a second run with that {@link InjectorOptions#generatedClassJar jar} writes the archive with
+ * <code>-XX:ArchiveClassesAtExit</code>.
+ * The archive holds the synthetic singletons too, so the difference is an upper bound
+ * on what the generated classes alone save.
+ * <p>
+ * CDS doesn't archive classes loaded from directories, so this needs a class path of jars,
+ * as when run from the JMH jar.
+ */
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@BenchmarkMode(SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+public class ClassArchiveBench {
+
+	@State(Scope.Benchmark)
+	public static class Archive {
+		@Param({"1000", "10000"})
+		int nodes;
+
+		@Param({"false", "true"})
+		boolean archived;
+
+		Path dir;
+		List<String> command;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException, InterruptedException {
+			dir = Files.createTempDirectory("nalbind-class-archive-bench");
+			if (archived) {
+				Path exported = dir.resolve("generated-classes");
+				Path jar = dir.resolve("generated.jar");
+				Path sharedArchive = dir.resolve("app.jsa");
+				run(javaCommand(List.of(), "export", exported));
+				writeJar(exported, jar);
+				run(javaCommand(List.of("-XX:ArchiveClassesAtExit=" + sharedArchive), "jar", jar));
+				command = javaCommand(List.of("-XX:SharedArchiveFile=" + sharedArchive), "jar", jar);
+			} else {
+				command = javaCommand(List.of(), null, null);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			try (Stream<Path> paths = Files.walk(dir)) {
+				paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+					try {
+						Files.delete(p);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+		}
+
+		/**
+		 * @param mode an argument for {@link #main}, or null for none
+		 */
+		private List<String> javaCommand(List<String> jvmArgs, String mode, Path path) {
+			List<String> result = new ArrayList<>();
+			result.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+			result.addAll(jvmArgs);
+			result.addAll(List.of("-cp", System.getProperty("java.class.path"), ClassArchiveBench.class.getName(), String.valueOf(nodes)));
+			if (mode != null) {
+				result.addAll(List.of(mode, path.toString()));
+			}
+			return result;
+		}
+
+		private static void writeJar(Path exported, Path jar) throws IOException {
+			try (var out = new JarOutputStream(Files.newOutputStream(jar))) {
+				for (String name: Files.readAllLines(exported.resolve(GeneratedClassArchive.CLASS_LIST))) {
+					String entryName = name.replace('.', '/') + ".class";
+					out.putNextEntry(new JarEntry(entryName));
+					out.write(Files.readAllBytes(exported.resolve(entryName)));
+					out.closeEntry();
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public int coldStart(Archive archive) throws IOException, InterruptedException {
+		return run(archive.command);
+	}
+
+	private static int run(List<String> command) throws IOException, InterruptedException {
+		int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+		if (exitCode != 0) {
+			throw new IllegalStateException("Exit code " + exitCode + " from " + command);
+		}
+		return exitCode;
+	}
+
+	/**
+	 * Builds an injector for a synthetic graph of <code>args[0]</code> nodes with generated wiring and field proxies,
+	 * whose classes can be archived. Then, if <code>args[1]</code> is <code>export</code>, exports the generated classes
+	 * to the directory <code>args[2]</code>, or if it's <code>jar</code>, defines them from the jar <code>args[2]</code>.
+	 */
+	public static void main(String[] args) {
+		int nodes = Integer.parseInt(args[0]);
+		var options = InjectorOptions.defaults()
+			.generatedWiring(true)
+			.proxyStrategy(ProxyStrategy.VOLATILE_FIELD);
+		if (args.length > 1) {
+			switch (args[1]) {
+				case "export" -> options.exportGeneratedClasses(Path.of(args[2]));
+				case "jar" -> options.generatedClassJar(Path.of(args[2]));
+				default -> throw new IllegalArgumentException("Unknown mode: " + args[1]);
+			}
+		}
+		var classes = SyntheticGraph.defaults()
+			.nodes(nodes)
+			.listeners(nodes / 10)
+			.listenerRegistries(10)
+			.generate();
+		Injector.withClasses(classes, options);
+	}
+}
@@ -0,0 +1,101 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openjdk.jmh.annotations.Mode.SingleShotTime;
+
+/**
+ * Compares the heap retained by {@value #NUM_INJECTORS} injectors for a {@link SyntheticGraph},
+ * with and without {@link InjectorOptions#compact compaction},
+ * and reports it as the secondary result <code>retainedBytesPerSingleton</code>.
+ * <p>
+ * The figure includes the singletons themselves, which are the same either way,
+ * so the difference between the two is what compaction saves.
+ * Memory allocated once per JVM, such as cached metadata and proxy templates,
+ * is retained by the warmup iterations, before anything is measured.
+ */
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@BenchmarkMode(SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+public class CompactBench {
+	static final int NUM_INJECTORS = 10;
+
+	@State(Scope.Benchmark)
+	public static class Graph {
+		@Param({"1000", "10000"})
+		int nodes;
+
+		@Param({"false", "true"})
+		boolean compact;
+
+		List<Class<?>> classes;
+
+		@Setup
+		public void setup() {
+			classes = SyntheticGraph.defaults()
+				.nodes(nodes)
+				.generate();
+		}
+	}
+
+	/**
+	 * The growth in used heap over an invocation, which creates all the injectors and keeps them reachable.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class RetainedHeap {
+		public long retainedBytesPerSingleton;
+		long usedBefore;
+		List<Injector> injectors;
+		int singletons;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			// Release the previous iteration's injectors
+			injectors = null;
+			System.gc();
+			retainedBytesPerSingleton = 0;
+			usedBefore = heapUsed();
+		}
+
+		@TearDown(Level.Invocation)
+		public void measure() {
+			System.gc();
+			retainedBytesPerSingleton = (heapUsed() - usedBefore) / singletons;
+		}
+
+		private static long heapUsed() {
+			return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		}
+	}
+
+	@Benchmark
+	public List<Injector> createInjectors(Graph graph, RetainedHeap heap) {
+		var options = InjectorOptions.defaults().compact(graph.compact);
+		List<Injector> result = new ArrayList<>(NUM_INJECTORS);
+		for (int i = 0; i < NUM_INJECTORS; i++) {
+			result.add(Injector.withClasses(graph.classes, options));
+		}
+		heap.injectors = result;
+		heap.singletons = NUM_INJECTORS * graph.classes.size();
+		return result;
+	}
+}
@@ -0,0 +1,97 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Measures {@link Injector#getInstance} from one thread and from as many threads as there are cores,
+ * against a plain {@link HashMap} holding the same singletons, which the injector used to read
+ * without any guarantee that other threads would see its contents.
+ * <p>
+ * Lookups that scale across cores take about the same average time per call with all threads as with one.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+public class GetInstanceBench {
+
+	@State(Scope.Benchmark)
+	public static class Singletons {
+		@Param({"1000"})
+		int nodes;
+
+		Injector injector;
+		Map<Class<?>, Object> hashMap;
+		Class<?>[] types;
+
+		@Setup
+		public void setup() {
+			List<Class<?>> classes = SyntheticGraph.defaults()
+				.nodes(nodes)
+				.generate();
+			injector = Injector.withClasses(classes);
+			types = classes.toArray(new Class<?>[0]);
+			hashMap = new HashMap<>();
+			for (var type: types) {
+				hashMap.put(type, injector.getInstance(type));
+			}
+		}
+	}
+
+	/**
+	 * Each thread cycles through the types on its own, so threads don't share a counter.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+
+		Class<?> nextType(Singletons singletons) {
+			Class<?> result = singletons.types[next];
+			next = (next + 1 == singletons.types.length) ? 0 : next + 1;
+			return result;
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object getInstance_oneThread(Singletons singletons, Cursor cursor) {
+		return singletons.injector.getInstance(cursor.nextType(singletons));
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object getInstance_allThreads(Singletons singletons, Cursor cursor) {
+		return singletons.injector.getInstance(cursor.nextType(singletons));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object hashMap_oneThread(Singletons singletons, Cursor cursor) {
+		Class<?> type = cursor.nextType(singletons);
+		return type.cast(singletons.hashMap.get(type));
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object hashMap_allThreads(Singletons singletons, Cursor cursor) {
+		Class<?> type = cursor.nextType(singletons);
+		return type.cast(singletons.hashMap.get(type));
+	}
+}
@@ -0,0 +1,86 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import org.elasticsearch.nalbind.api.Injected;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Compares calling a singleton's constructor and {@link Injected} method through the cached {@link Invokers}
+ * with calling them through core reflection, as happens for every singleton each time an injector is built.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+public class InvocationBench {
+
+	public static class Dependency { }
+
+	public static class Singleton {
+		final Dependency first;
+		final Dependency second;
+		final Dependency third;
+		int received;
+
+		public Singleton(Dependency first, Dependency second, Dependency third) {
+			this.first = first;
+			this.second = second;
+			this.third = third;
+		}
+
+		@Injected
+		public void dependencies(Collection<Dependency> dependencies) {
+			received = dependencies.size();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Target {
+		ConstructorSpec spec;
+		Constructor<?> constructor;
+		Method injectedMethod;
+		Object[] args;
+		List<Dependency> dependencies;
+
+		@Setup
+		public void setup() {
+			spec = SingletonMetadata.of(Singleton.class, InjectionIndex.empty()).constructorSpec();
+			constructor = spec.constructor();
+			injectedMethod = spec.reportInjectedMethods().getFirst();
+			var dependency = new Dependency();
+			args = new Object[] { dependency, dependency, dependency };
+			dependencies = List.of(dependency);
+		}
+	}
+
+	@Benchmark
+	public Object invokers(Target target) {
+		var invokers = Invokers.of(target.spec);
+		Object result = invokers.newInstance(target.args);
+		invokers.injectedMethods().getFirst().invoke(result, target.dependencies);
+		return result;
+	}
+
+	@Benchmark
+	public Object reflection(Target target) throws ReflectiveOperationException {
+		Object result = target.constructor.newInstance(target.args);
+		target.injectedMethod.invoke(result, target.dependencies);
+		return result;
+	}
+}
@@ -0,0 +1,113 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.elasticsearch.nalbind.injector.spec.AliasSpec;
+import org.elasticsearch.nalbind.injector.spec.AmbiguousSpec;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.InjectionSpec;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+
+import static java.util.Collections.newSetFromMap;
+
+/**
+ * The spec computation and planning that {@link Injector} used before it switched to a {@link SpecGraph},
+ * using maps and sets keyed by {@link Class}, kept as a baseline for {@link PlannerBench}.
+ * Its logging is omitted, along with the set of parameter types that was computed only for logging,
+ * which makes it a little faster than it was.
+ */
+final class MapBasedPlanner {
+	private MapBasedPlanner() { }
+
+	/**
+	 * @return the same specs as {@link Injector#specGraph}, in the same order
+	 */
+	static Map<Class<?>, InjectionSpec> specMap(Collection<Class<?>> classesToProcess, InjectionIndex index) {
+		Set<Class<?>> checklist = new HashSet<>(classesToProcess);
+		Map<Class<?>, InjectionSpec> specsByClass = new LinkedHashMap<>();
+		for (var c: classesToProcess) {
+			computeSpec(c, checklist, specsByClass, index);
+		}
+		return specsByClass;
+	}
+
+	private static void computeSpec(Class<?> c, Set<Class<?>> checklist, Map<Class<?>, InjectionSpec> specsByClass, InjectionIndex index) {
+		if (specsByClass.get(c) != null) {
+			return;
+		}
+		if (checklist.remove(c)) {
+			SingletonMetadata metadata = SingletonMetadata.of(c, index);
+			ConstructorSpec constructorSpec = metadata.constructorSpec();
+			if (constructorSpec == null) {
+				return;
+			}
+			for (var p: constructorSpec.parameters()) {
+				computeSpec(p.type(), checklist, specsByClass, index);
+			}
+			for (Method m: constructorSpec.reportInjectedMethods()) {
+				for (var pt: m.getParameterTypes()) {
+					computeSpec(pt, checklist, specsByClass, index);
+				}
+			}
+			registerSpec(constructorSpec, specsByClass);
+			for (var supertype: metadata.supertypes()) {
+				registerSpec(new AliasSpec(supertype, c), specsByClass);
+			}
+		}
+	}
+
+	private static void registerSpec(InjectionSpec spec, Map<Class<?>, InjectionSpec> specsByClass) {
+		Class<?> requestedType = spec.requestedType();
+		var existing = specsByClass.put(requestedType, spec);
+		if (existing != null && !existing.equals(spec)) {
+			specsByClass.put(requestedType, new AmbiguousSpec(requestedType, spec, existing));
+		}
+	}
+
+	/**
+	 * @return the same plan as {@link Injector#instantiationPlan}
+	 */
+	static Collection<UnambiguousSpec> instantiationPlan(Map<Class<?>, InjectionSpec> specsByClass) {
+		List<UnambiguousSpec> plan = new ArrayList<>();
+		Set<InjectionSpec> alreadyPlanned = newSetFromMap(new IdentityHashMap<>());
+		specsByClass.keySet().forEach((c) ->
+			updateInstantiationPlan(plan, c, specsByClass, alreadyPlanned)
+		);
+		return plan;
+	}
+
+	private static void updateInstantiationPlan(
+		List<UnambiguousSpec> plan,
+		Class<?> requestedClass,
+		Map<Class<?>, InjectionSpec> specsByClass,
+		Set<InjectionSpec> alreadyPlanned
+	) {
+		InjectionSpec spec = specsByClass.get(requestedClass);
+		if (alreadyPlanned.add(spec)) {
+			switch (spec) {
+				case null ->
+					throw new IllegalStateException("Cannot instantiate " + requestedClass);
+				case ConstructorSpec c -> {
+					for (var p: c.parameters()) {
+						if (p.now()) {
+							updateInstantiationPlan(plan, p.type(), specsByClass, alreadyPlanned);
+						}
+					}
+					plan.add(c);
+				}
+				case AliasSpec a -> {
+					updateInstantiationPlan(plan, a.subtype(), specsByClass, alreadyPlanned);
+					plan.add(a);
+				}
+				case AmbiguousSpec a -> { }
+			}
+		}
+	}
+}
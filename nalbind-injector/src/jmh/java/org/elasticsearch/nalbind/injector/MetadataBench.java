@@ -0,0 +1,182 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.elasticsearch.nalbind.api.Now;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.GETFIELD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.PUTFIELD;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V17;
+import static org.objectweb.asm.Type.getInternalName;
+import static org.openjdk.jmh.annotations.Mode.SingleShotTime;
+
+/**
+ * Compares reading {@link SingletonMetadata} from class files with {@link ClassFileReader}
+ * against gathering it {@link SingletonMetadata#reflect reflectively}.
+ * <p>
+ * Each invocation loads the generated classes afresh in a new class loader, as at startup,
+ * so that reflection pays for linking them, and neither approach benefits from JDK caches.
+ */
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+@BenchmarkMode(SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+public class MetadataBench {
+
+	@State(Scope.Benchmark)
+	public static class Classes {
+		@Param({"1000"})
+		int classes;
+
+		@Param({"4"})
+		int parametersPerConstructor;
+
+		/**
+		 * Getters, to give reflection some bytecode to verify, as real classes would.
+		 */
+		@Param({"4"})
+		int methodsPerClass;
+
+		Path dir;
+		List<String> classNames;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			dir = Files.createTempDirectory("nalbind-metadata-bench");
+			classNames = new ArrayList<>(classes);
+			for (int i = 0; i < classes; i++) {
+				String className = "synthetic/C" + i;
+				List<String> parameterTypes = new ArrayList<>();
+				for (int p = 1; p <= parametersPerConstructor && p <= i; p++) {
+					parameterTypes.add("synthetic/C" + (i - p));
+				}
+				Path file = dir.resolve(className + ".class");
+				Files.createDirectories(file.getParent());
+				Files.write(file, generateClass(className, parameterTypes, methodsPerClass));
+				classNames.add(className.replace('/', '.'));
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			try (Stream<Path> paths = Files.walk(dir)) {
+				paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+					try {
+						Files.delete(p);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Loader {
+		URLClassLoader loader;
+
+		@Setup(Level.Invocation)
+		public void setup(Classes classes) throws IOException {
+			loader = new URLClassLoader(new URL[] { classes.dir.toUri().toURL() }, MetadataBench.class.getClassLoader());
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown() throws IOException {
+			loader.close();
+		}
+	}
+
+	@Benchmark
+	public List<SingletonMetadata> classFile(Classes classes, Loader state) throws ClassNotFoundException {
+		List<SingletonMetadata> result = new ArrayList<>(classes.classes);
+		for (var name: classes.classNames) {
+			result.add(ClassFileReader.read(Class.forName(name, false, state.loader)));
+		}
+		return result;
+	}
+
+	@Benchmark
+	public List<SingletonMetadata> reflection(Classes classes, Loader state) throws ClassNotFoundException {
+		List<SingletonMetadata> result = new ArrayList<>(classes.classes);
+		for (var name: classes.classNames) {
+			result.add(SingletonMetadata.reflect(Class.forName(name, false, state.loader)));
+		}
+		return result;
+	}
+
+	/**
+	 * A class with a field for each parameter, a constructor that sets them, with the first parameter <code>@Now</code>,
+	 * and some getters.
+	 */
+	private static byte[] generateClass(String className, List<String> parameterTypes, int numMethods) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V17, ACC_PUBLIC, className, null, getInternalName(Object.class), null);
+		StringBuilder descriptor = new StringBuilder("(");
+		for (int p = 0; p < parameterTypes.size(); p++) {
+			String fieldDescriptor = "L" + parameterTypes.get(p) + ";";
+			cw.visitField(ACC_PRIVATE, "f" + p, fieldDescriptor, null, null).visitEnd();
+			descriptor.append(fieldDescriptor);
+		}
+		descriptor.append(")V");
+
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", descriptor.toString(), null, null);
+		if (!parameterTypes.isEmpty()) {
+			mv.visitParameterAnnotation(0, Type.getDescriptor(Now.class), true).visitEnd();
+		}
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, getInternalName(Object.class), "<init>", "()V", false);
+		for (int p = 0; p < parameterTypes.size(); p++) {
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ALOAD, p + 1);
+			mv.visitFieldInsn(PUTFIELD, className, "f" + p, "L" + parameterTypes.get(p) + ";");
+		}
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		for (int m = 0; m < numMethods && m < parameterTypes.size(); m++) {
+			String fieldDescriptor = "L" + parameterTypes.get(m) + ";";
+			mv = cw.visitMethod(ACC_PUBLIC, "get" + m, "()" + fieldDescriptor, null, null);
+			mv.visitCode();
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, className, "f" + m, fieldDescriptor);
+			mv.visitInsn(ARETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+}
@@ -0,0 +1,112 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Compares notifying listeners through a {@link ProxyFactory#generateMulticast multicast} proxy
+ * with looping over a collection of them, as an {@link org.elasticsearch.nalbind.api.Injected Injected} method
+ * would receive.
+ * <p>
+ * The listeners are of several classes, as they would be in practice, which makes the loop's call site megamorphic.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+public class MulticastBench {
+
+	public interface Listener {
+		void onEvent(long event);
+	}
+
+	public static final class FirstListener implements Listener {
+		long sum;
+
+		@Override
+		public void onEvent(long event) {
+			sum += event;
+		}
+	}
+
+	public static final class SecondListener implements Listener {
+		long max;
+
+		@Override
+		public void onEvent(long event) {
+			max = Math.max(max, event);
+		}
+	}
+
+	public static final class ThirdListener implements Listener {
+		long count;
+
+		@Override
+		public void onEvent(long event) {
+			count++;
+		}
+	}
+
+	public static final class FourthListener implements Listener {
+		long last;
+
+		@Override
+		public void onEvent(long event) {
+			last = event;
+		}
+	}
+
+	private static final List<Supplier<Listener>> LISTENER_CLASSES = List.of(
+		FirstListener::new,
+		SecondListener::new,
+		ThirdListener::new,
+		FourthListener::new
+	);
+
+	@State(Scope.Benchmark)
+	public static class Listeners {
+		@Param({"1", "4", "16", "64"})
+		int listeners;
+
+		List<Listener> collection;
+		Listener multicast;
+		long event = 0;
+
+		@Setup
+		public void setup() {
+			collection = new ArrayList<>(listeners);
+			for (int i = 0; i < listeners; i++) {
+				collection.add(LISTENER_CLASSES.get(i % LISTENER_CLASSES.size()).get());
+			}
+			multicast = new ProxyFactory().generateMulticast(Listener.class, collection);
+		}
+	}
+
+	@Benchmark
+	public void multicast(Listeners state) {
+		state.multicast.onEvent(state.event++);
+	}
+
+	@Benchmark
+	public void collectionLoop(Listeners state) {
+		long event = state.event++;
+		for (var listener: state.collection) {
+			listener.onEvent(event);
+		}
+	}
+}
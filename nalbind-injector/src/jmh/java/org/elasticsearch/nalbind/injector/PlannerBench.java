@@ -0,0 +1,83 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.elasticsearch.nalbind.injector.spec.InjectionSpec;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Compares spec computation and planning using a {@link SpecGraph} with the {@link MapBasedPlanner} it replaced,
+ * on large {@link SyntheticGraph}s.
+ * The <code>specsAndPlan</code> benchmarks are the fair comparison,
+ * since the graph's ids are assigned during spec computation.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@State(Scope.Benchmark)
+public class PlannerBench {
+	@Param({"10000", "50000"})
+	int nodes;
+
+	/**
+	 * Deep graphs have long chains of <code>@Now</code> dependencies,
+	 * which is where recursion hurts most.
+	 */
+	@Param({"10", "1000"})
+	int depth;
+
+	List<Class<?>> classes;
+	SpecGraph graph;
+	Map<Class<?>, InjectionSpec> specs;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		classes = SyntheticGraph.defaults()
+			.nodes(nodes)
+			.depth(depth)
+			.nowRatio(0.5)
+			.generate();
+		graph = Injector.specGraph(classes, InjectionIndex.empty());
+		specs = MapBasedPlanner.specMap(classes, InjectionIndex.empty());
+		if (!Injector.instantiationPlan(graph).equals(MapBasedPlanner.instantiationPlan(specs))) {
+			throw new IllegalStateException("Planners disagree");
+		}
+	}
+
+	@Benchmark
+	public Collection<UnambiguousSpec> specGraph_specsAndPlan() {
+		return Injector.instantiationPlan(Injector.specGraph(classes, InjectionIndex.empty()));
+	}
+
+	@Benchmark
+	public Collection<UnambiguousSpec> mapBased_specsAndPlan() {
+		return MapBasedPlanner.instantiationPlan(MapBasedPlanner.specMap(classes, InjectionIndex.empty()));
+	}
+
+	@Benchmark
+	public Collection<UnambiguousSpec> specGraph_plan() {
+		return Injector.instantiationPlan(graph);
+	}
+
+	@Benchmark
+	public Collection<UnambiguousSpec> mapBased_plan() {
+		return MapBasedPlanner.instantiationPlan(specs);
+	}
+}
@@ -0,0 +1,67 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.Collection;
+import java.util.List;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Checks that spec computation and both planners scale linearly, even on a {@link SyntheticGraph#chained chained} graph,
+ * whose <code>@Now</code> dependencies form a chain as long as the graph.
+ * <p>
+ * Unlike {@link PlannerBench}, this runs with the default thread stack size,
+ * which recursive implementations would overflow.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@State(Scope.Benchmark)
+public class ScalingBench {
+	@Param({"25000", "50000", "100000"})
+	int nodes;
+
+	List<Class<?>> classes;
+	SpecGraph graph;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		classes = SyntheticGraph.defaults()
+			.nodes(nodes)
+			.depth(100)
+			.chained(true)
+			.generate()
+			// Starting from the end, a depth-first search must follow the whole chain
+			.reversed();
+		graph = Injector.specGraph(classes, InjectionIndex.empty());
+	}
+
+	@Benchmark
+	public SpecGraph specGraph() {
+		return Injector.specGraph(classes, InjectionIndex.empty());
+	}
+
+	@Benchmark
+	public Collection<UnambiguousSpec> plan() {
+		return Injector.instantiationPlan(graph);
+	}
+
+	@Benchmark
+	public List<UnambiguousSpec> topologicalPlan() {
+		return TopologicalPlanner.instantiationPlan(graph, __ -> false);
+	}
+}
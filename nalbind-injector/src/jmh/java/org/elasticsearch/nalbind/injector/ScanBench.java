@@ -0,0 +1,206 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleFinder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.elasticsearch.nalbind.api.InjectableSingleton;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.ModuleVisitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_MODULE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V9;
+import static org.objectweb.asm.Type.getInternalName;
+import static org.openjdk.jmh.annotations.Mode.SingleShotTime;
+
+/**
+ * Compares {@link ProviderScanner} with the serial scan it replaced, on a layer of generated modules,
+ * each providing several {@link InjectableSingleton}s.
+ * <p>
+ * Each invocation gets a new layer, so every provider class has to be loaded afresh, as it would at startup.
+ */
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+@BenchmarkMode(SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+public class ScanBench {
+	/**
+	 * The benchmark runs on the class path, where <code>nalbind.api</code> isn't a named module that the
+	 * generated modules could require, so the layer has its own stand-in, exporting its own copy of the service type.
+	 * The scan only compares the service's name.
+	 */
+	private static final String API_MODULE = "synthetic.api";
+
+	@State(Scope.Benchmark)
+	public static class Modules {
+		@Param({"100", "500"})
+		int modules;
+
+		@Param({"10"})
+		int providersPerModule;
+
+		Path dir;
+		ModuleFinder finder;
+		Set<String> moduleNames;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			dir = Files.createTempDirectory("nalbind-scan-bench");
+			moduleNames = new HashSet<>();
+			List<Path> moduleDirs = new ArrayList<>();
+
+			Path apiDir = dir.resolve(API_MODULE);
+			write(apiDir.resolve(getInternalName(InjectableSingleton.class) + ".class"), generateService());
+			write(apiDir.resolve("module-info.class"), generateApiModuleInfo());
+			moduleDirs.add(apiDir);
+
+			for (int m = 0; m < modules; m++) {
+				String moduleName = "synthetic.m" + m;
+				Path moduleDir = dir.resolve(moduleName);
+				List<String> providers = new ArrayList<>();
+				for (int p = 0; p < providersPerModule; p++) {
+					String className = "synthetic/m" + m + "/Provider" + p;
+					write(moduleDir.resolve(className + ".class"), generateProvider(className));
+					providers.add(className);
+				}
+				write(moduleDir.resolve("module-info.class"), generateModuleInfo(moduleName, "synthetic/m" + m, providers));
+				moduleNames.add(moduleName);
+				moduleDirs.add(moduleDir);
+			}
+			finder = ModuleFinder.of(moduleDirs.toArray(Path[]::new));
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			try (Stream<Path> paths = Files.walk(dir)) {
+				paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+					try {
+						Files.delete(p);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+		}
+
+		ModuleLayer newLayer() {
+			Configuration cf = ModuleLayer.boot().configuration().resolve(finder, ModuleFinder.of(), moduleNames);
+			return ModuleLayer.boot().defineModulesWithManyLoaders(cf, ScanBench.class.getClassLoader());
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Layer {
+		ModuleLayer layer;
+
+		@Setup(Level.Invocation)
+		public void setup(Modules modules) {
+			layer = modules.newLayer();
+		}
+	}
+
+	@Benchmark
+	public Collection<Class<?>> scan(Layer state) {
+		return ProviderScanner.scan(ProviderScanner.modules(state.layer, false), null);
+	}
+
+	/**
+	 * The previous implementation, for comparison.
+	 */
+	@Benchmark
+	public Collection<Class<?>> serialScan(Layer state) throws ClassNotFoundException {
+		Set<Class<?>> result = new HashSet<>();
+		for (var m: state.layer.modules()) {
+			for (var p: m.getDescriptor().provides()) {
+				if (InjectableSingleton.class.getName().equals(p.service())) {
+					for (var name: p.providers()) {
+						result.add(m.getClassLoader().loadClass(name));
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void write(Path file, byte[] bytes) throws IOException {
+		Files.createDirectories(file.getParent());
+		Files.write(file, bytes);
+	}
+
+	private static byte[] generateProvider(String className) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V9, ACC_PUBLIC, className, null, getInternalName(Object.class), null);
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, getInternalName(Object.class), "<init>", "()V", false);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static byte[] generateService() {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(V9, ACC_PUBLIC | ACC_ABSTRACT | ACC_INTERFACE, getInternalName(InjectableSingleton.class), null, getInternalName(Object.class), null);
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static byte[] generateApiModuleInfo() {
+		String packageName = InjectableSingleton.class.getPackageName().replace('.', '/');
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(V9, ACC_MODULE, "module-info", null, null, null);
+		ModuleVisitor mv = cw.visitModule(API_MODULE, 0, null);
+		mv.visitRequire("java.base", 0, null);
+		mv.visitPackage(packageName);
+		mv.visitExport(packageName, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static byte[] generateModuleInfo(String moduleName, String packageName, List<String> providers) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(V9, ACC_MODULE, "module-info", null, null, null);
+		ModuleVisitor mv = cw.visitModule(moduleName, 0, null);
+		mv.visitRequire("java.base", 0, null);
+		mv.visitRequire(API_MODULE, 0, null);
+		mv.visitPackage(packageName);
+		mv.visitProvide(getInternalName(InjectableSingleton.class), providers.toArray(String[]::new));
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+}
@@ -0,0 +1,131 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.Collection;
+import java.util.List;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Measures each phase of {@link Injector#withClasses} on a {@link SyntheticGraph}, as well as the whole thing.
+ * Each phase is measured on the output of the previous phases, which is prepared before each invocation.
+ * <p>
+ * The graph's classes are generated once per trial, so after the first invocation,
+ * spec computation benefits from the cached {@link SingletonMetadata}, as it would for every injector but the first.
+ * <p>
+ * Run with <code>./gradlew :nalbind-injector:jmh</code>, which enables the GC profiler
+ * to report allocation rates alongside the timings.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+public class StartupBench {
+
+	@State(Scope.Benchmark)
+	public static class Graph {
+		@Param({"100", "1000", "10000"})
+		int nodes;
+
+		List<Class<?>> classes;
+		SpecGraph specs;
+		Collection<UnambiguousSpec> plan;
+		List<Class<?>> proxiedTypes;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			classes = SyntheticGraph.defaults()
+				.nodes(nodes)
+				.listeners(nodes / 10)
+				.listenerRegistries(10)
+				.generate();
+			specs = Injector.specGraph(classes, InjectionIndex.empty());
+			plan = Injector.instantiationPlan(specs);
+			proxiedTypes = Injector.proxiedTypes(plan);
+		}
+
+		Injector newInjector() {
+			return new Injector(InjectorOptions.defaults(), InjectionIndex.empty());
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ReadyForProxies {
+		Injector injector;
+
+		@Setup(Level.Invocation)
+		public void setup(Graph graph) {
+			injector = graph.newInjector();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ReadyForInstantiation {
+		Injector injector;
+
+		@Setup(Level.Invocation)
+		public void setup(Graph graph) {
+			injector = graph.newInjector();
+			injector.createProxies(graph.proxiedTypes);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ReadyForDelivery {
+		Injector injector;
+
+		@Setup(Level.Invocation)
+		public void setup(Graph graph) {
+			injector = graph.newInjector();
+			injector.createProxies(graph.proxiedTypes);
+			injector.executeInstantiationPlan(graph.plan);
+			injector.resolveProxies();
+		}
+	}
+
+	@Benchmark
+	public SpecGraph computeSpecs(Graph graph) {
+		return Injector.specGraph(graph.classes, InjectionIndex.empty());
+	}
+
+	@Benchmark
+	public Collection<UnambiguousSpec> plan(Graph graph) {
+		return Injector.instantiationPlan(graph.specs);
+	}
+
+	@Benchmark
+	public Injector createProxies(Graph graph, ReadyForProxies state) {
+		state.injector.createProxies(graph.proxiedTypes);
+		return state.injector;
+	}
+
+	@Benchmark
+	public Injector instantiate(Graph graph, ReadyForInstantiation state) {
+		state.injector.executeInstantiationPlan(graph.plan);
+		return state.injector;
+	}
+
+	@Benchmark
+	public Injector deliverInjected(Graph graph, ReadyForDelivery state) {
+		state.injector.reportInjectedObjects(graph.plan);
+		return state.injector;
+	}
+
+	@Benchmark
+	public Injector withClasses(Graph graph) {
+		return Injector.withClasses(graph.classes);
+	}
+}
@@ -0,0 +1,290 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.elasticsearch.nalbind.api.Injected;
+import org.elasticsearch.nalbind.api.Now;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_8;
+import static org.objectweb.asm.Type.getDescriptor;
+import static org.objectweb.asm.Type.getInternalName;
+
+/**
+ * Generates a graph of singleton classes with a given shape, for benchmarking the injector.
+ * <p>
+ * Node <code>i</code> consists of an interface <code>I<i>i</i></code> with a method <code>int id()</code>,
+ * and a class <code>C<i>i</i></code> implementing it, whose constructor takes the interfaces of its dependencies.
+ * Nodes are divided evenly into {@link #depth} layers, and each node's dependencies are chosen at random:
+ * <ul>
+ *     <li>
+ *         Most point to nodes in lower layers; a fraction {@link #nowRatio} of these are <code>@Now</code>
+ *         parameters, whose <code>id</code> method the constructor calls.
+ *     </li>
+ *     <li>
+ *         A fraction {@link #cycleDensity} point to nodes in the same or a higher layer instead,
+ *         creating cycles that must be broken with proxies. These are never <code>@Now</code>.
+ *     </li>
+ * </ul>
+ * The first {@link #listeners} nodes also implement {@link Listener}, and the last {@link #listenerRegistries}
+ * nodes have an <code>@Injected</code> method that receives all of them.
+ * <p>
+ * The same settings and {@link #seed} always produce the same graph.
+ *
+ * {@snippet :
+ * List<Class<?>> classes = SyntheticGraph.defaults()
+ * 	.nodes(1000)
+ * 	.cycleDensity(0.1)
+ * 	.generate();
+ * }
+ */
+public final class SyntheticGraph {
+	private static final String PACKAGE = "org/elasticsearch/nalbind/synthetic/";
+
+	private int nodes = 100;
+	private int depth = 10;
+	private int fanOut = 4;
+	private double cycleDensity = 0.05;
+	private double nowRatio = 0.25;
+	private int listeners = 10;
+	private int listenerRegistries = 1;
+	private boolean chained = false;
+	private long seed = 42;
+
+	/**
+	 * The interface implemented by listener nodes.
+	 */
+	public interface Listener { }
+
+	private SyntheticGraph() { }
+
+	public static SyntheticGraph defaults() {
+		return new SyntheticGraph();
+	}
+
+	public SyntheticGraph nodes(int value) {
+		this.nodes = value;
+		return this;
+	}
+
+	/**
+	 * The number of layers. The longest chain of dependencies has at most this many nodes.
+	 */
+	public SyntheticGraph depth(int value) {
+		this.depth = value;
+		return this;
+	}
+
+	/**
+	 * The number of dependencies of each node, except those in the lowest layer,
+	 * which have only cyclic dependencies.
+	 */
+	public SyntheticGraph fanOut(int value) {
+		this.fanOut = value;
+		return this;
+	}
+
+	public SyntheticGraph cycleDensity(double value) {
+		this.cycleDensity = value;
+		return this;
+	}
+
+	public SyntheticGraph nowRatio(double value) {
+		this.nowRatio = value;
+		return this;
+	}
+
+	/**
+	 * Whether each node also has a <code>@Now</code> dependency on the node before it,
+	 * so that there's a chain of <code>@Now</code> dependencies through the whole graph.
+	 */
+	public SyntheticGraph chained(boolean value) {
+		this.chained = value;
+		return this;
+	}
+
+	public SyntheticGraph listeners(int value) {
+		this.listeners = value;
+		return this;
+	}
+
+	public SyntheticGraph listenerRegistries(int value) {
+		this.listenerRegistries = value;
+		return this;
+	}
+
+	public SyntheticGraph seed(long value) {
+		this.seed = value;
+		return this;
+	}
+
+	/**
+	 * Defines the classes in a new class loader.
+	 *
+	 * @return the implementation classes, suitable for {@link Injector#withClasses}
+	 */
+	public List<Class<?>> generate() {
+		Random random = new Random(seed);
+		var loader = new Loader(SyntheticGraph.class.getClassLoader());
+		for (int i = 0; i < nodes; i++) {
+			loader.add(interfaceName(i), generateInterface(i));
+		}
+		for (int i = 0; i < nodes; i++) {
+			loader.add(className(i), generateClass(i, dependencies(i, random)));
+		}
+		List<Class<?>> result = new ArrayList<>(nodes);
+		for (int i = 0; i < nodes; i++) {
+			try {
+				result.add(loader.loadClass(className(i).replace('/', '.')));
+			} catch (ClassNotFoundException e) {
+				throw new IllegalStateException("Generated class should be loadable", e);
+			}
+		}
+		return result;
+	}
+
+	private int layer(int node) {
+		return (int) ((long) node * depth / nodes);
+	}
+
+	private int firstNodeOfLayer(int layer) {
+		// Smallest node index whose layer is at least the given one
+		return (int) (((long) layer * nodes + depth - 1) / depth);
+	}
+
+	/**
+	 * @return for each dependency of <code>node</code>, whether it's <code>@Now</code>
+	 */
+	private Map<Integer, Boolean> dependencies(int node, Random random) {
+		Map<Integer, Boolean> result = new LinkedHashMap<>();
+		if (chained && node > 0) {
+			result.put(node - 1, true);
+		}
+		int layerStart = firstNodeOfLayer(layer(node));
+		for (int d = 0; d < fanOut; d++) {
+			if (random.nextDouble() < cycleDensity) {
+				int target = layerStart + random.nextInt(nodes - layerStart);
+				if (target != node) {
+					result.putIfAbsent(target, false);
+				}
+			} else if (layerStart > 0) {
+				int target = random.nextInt(layerStart);
+				boolean now = random.nextDouble() < nowRatio;
+				// An edge that's both @Now and not must be @Now
+				result.merge(target, now, Boolean::logicalOr);
+			}
+		}
+		return result;
+	}
+
+	private static byte[] generateInterface(int node) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(V1_8, ACC_PUBLIC | ACC_ABSTRACT | ACC_INTERFACE, interfaceName(node), null, getInternalName(Object.class), null);
+		cw.visitMethod(ACC_PUBLIC | ACC_ABSTRACT, "id", "()I", null, null).visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private byte[] generateClass(int node, Map<Integer, Boolean> dependencies) {
+		List<String> interfaces = new ArrayList<>();
+		interfaces.add(interfaceName(node));
+		if (node < listeners) {
+			interfaces.add(getInternalName(Listener.class));
+		}
+		ClassWriter cw = new ClassWriter(COMPUTE_MAXS | COMPUTE_FRAMES);
+		cw.visit(V1_8, ACC_PUBLIC, className(node), null, getInternalName(Object.class), interfaces.toArray(String[]::new));
+
+		StringBuilder descriptor = new StringBuilder("(");
+		dependencies.keySet().forEach(d -> descriptor.append('L').append(interfaceName(d)).append(';'));
+		descriptor.append(")V");
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", descriptor.toString(), null, null);
+		int param = 0;
+		for (var now: dependencies.values()) {
+			if (now) {
+				mv.visitParameterAnnotation(param, getDescriptor(Now.class), true).visitEnd();
+			}
+			param++;
+		}
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, getInternalName(Object.class), "<init>", "()V", false);
+		param = 0;
+		for (var d: dependencies.entrySet()) {
+			param++;
+			if (d.getValue()) {
+				mv.visitVarInsn(ALOAD, param);
+				mv.visitMethodInsn(INVOKEINTERFACE, interfaceName(d.getKey()), "id", "()I", true);
+				mv.visitInsn(POP);
+			}
+		}
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(ACC_PUBLIC, "id", "()I", null, null);
+		mv.visitCode();
+		mv.visitLdcInsn(node);
+		mv.visitInsn(IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		if (node >= nodes - listenerRegistries) {
+			String collectionDescriptor = getDescriptor(Collection.class);
+			String signature = "(" + collectionDescriptor.replace(";", "<" + getDescriptor(Listener.class) + ">;") + ")V";
+			mv = cw.visitMethod(ACC_PUBLIC, "listeners", "(" + collectionDescriptor + ")V", signature, null);
+			mv.visitAnnotation(getDescriptor(Injected.class), true).visitEnd();
+			mv.visitCode();
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static String interfaceName(int node) {
+		return PACKAGE + "I" + node;
+	}
+
+	private static String className(int node) {
+		return PACKAGE + "C" + node;
+	}
+
+	private static final class Loader extends ClassLoader {
+		private final Map<String, byte[]> bytesByName = new LinkedHashMap<>();
+
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		void add(String internalName, byte[] bytes) {
+			bytesByName.put(internalName.replace('/', '.'), bytes);
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] bytes = bytesByName.get(name);
+			if (bytes == null) {
+				throw new ClassNotFoundException(name);
+			}
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
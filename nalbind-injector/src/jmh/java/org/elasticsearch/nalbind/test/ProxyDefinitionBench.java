@@ -0,0 +1,104 @@
+package org.elasticsearch.nalbind.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import org.elasticsearch.nalbind.injector.ProxyFactory;
+import org.elasticsearch.nalbind.injector.ProxyFactory.ProxyInfo;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.openjdk.jmh.annotations.Mode.SingleShotTime;
+
+/**
+ * Measures the time to define {@value #NUM_PROXIES} proxy classes,
+ * and reports the metaspace they occupy as the secondary result <code>metaspaceKb</code>.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@BenchmarkMode(SingleShotTime)
+@State(Scope.Thread)
+public class ProxyDefinitionBench {
+	static final int NUM_PROXIES = 1000;
+
+	/**
+	 * <dl>
+	 *     <dt>sharedClassLoader</dt><dd>one {@link ProxyFactory} for all proxies, as an injector does</dd>
+	 *     <dt>classLoaderPerProxy</dt><dd>{@link ProxyFactory#generateFor}, which uses a new class loader each time</dd>
+	 * </dl>
+	 */
+	@Param({"sharedClassLoader", "classLoaderPerProxy"})
+	String strategy;
+
+	List<ProxyInfo<ProxyBench.TestInterface>> proxies;
+
+	@TearDown(Level.Iteration)
+	public void releaseProxies() {
+		proxies = null;
+	}
+
+	/**
+	 * The growth in metaspace over an invocation, which defines all the proxies.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Metaspace {
+		public long metaspaceKb;
+		long usedBefore;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			// Unload the previous iteration's proxies
+			System.gc();
+			metaspaceKb = 0;
+			usedBefore = metaspaceUsed();
+		}
+
+		@TearDown(Level.Invocation)
+		public void measure() {
+			metaspaceKb = (metaspaceUsed() - usedBefore) / 1024;
+		}
+	}
+
+	@Benchmark
+	public List<ProxyInfo<ProxyBench.TestInterface>> defineProxies(Metaspace metaspace) {
+		// Keep the proxies reachable until the iteration ends, so their classes can't be unloaded
+		proxies = new ArrayList<>(NUM_PROXIES);
+		switch (strategy) {
+			case "sharedClassLoader" -> {
+				ProxyFactory factory = new ProxyFactory();
+				for (int i = 0; i < NUM_PROXIES; i++) {
+					proxies.add(factory.generate(ProxyBench.TestInterface.class));
+				}
+			}
+			case "classLoaderPerProxy" -> {
+				for (int i = 0; i < NUM_PROXIES; i++) {
+					proxies.add(ProxyFactory.generateFor(ProxyBench.TestInterface.class));
+				}
+			}
+			default -> throw new IllegalArgumentException("Unknown strategy: " + strategy);
+		}
+		return proxies;
+	}
+
+	private static long metaspaceUsed() {
+		return ManagementFactory.getMemoryPoolMXBeans().stream()
+			.filter(p -> p.getName().equals("Metaspace"))
+			.map(MemoryPoolMXBean::getUsage)
+			.mapToLong(MemoryUsage::getUsed)
+			.sum();
+	}
+}
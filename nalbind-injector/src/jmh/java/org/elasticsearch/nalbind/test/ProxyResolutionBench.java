@@ -0,0 +1,79 @@
+package org.elasticsearch.nalbind.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.elasticsearch.nalbind.injector.ProxyFactory;
+import org.elasticsearch.nalbind.injector.ProxyFactory.ProxyInfo;
+import org.elasticsearch.nalbind.injector.ProxyStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.openjdk.jmh.annotations.Mode.SingleShotTime;
+
+/**
+ * Compares resolving many {@link ProxyStrategy#INDY} proxies one {@link ProxyInfo#setter setter} at a time,
+ * each of which syncs its own call site, with resolving them all with {@link ProxyFactory#setAll},
+ * as an injector does.
+ */
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+@BenchmarkMode(SingleShotTime)
+@OutputTimeUnit(MICROSECONDS)
+public class ProxyResolutionBench {
+
+	public interface TestInterface {
+		String testMethod(String arg);
+	}
+
+	public static final class TestImplementation implements TestInterface {
+		@Override
+		public String testMethod(String arg) {
+			return arg;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Unresolved {
+		@Param({"1000", "10000"})
+		int proxies;
+
+		List<ProxyInfo<TestInterface>> proxyInfos;
+		List<TestInterface> targets;
+
+		@Setup(Level.Invocation)
+		public void setup() {
+			var factory = new ProxyFactory(ProxyStrategy.INDY);
+			proxyInfos = new ArrayList<>(proxies);
+			targets = new ArrayList<>(proxies);
+			for (int i = 0; i < proxies; i++) {
+				proxyInfos.add(factory.generate(TestInterface.class));
+				targets.add(new TestImplementation());
+			}
+		}
+	}
+
+	@Benchmark
+	public List<ProxyInfo<TestInterface>> eachSetter(Unresolved state) {
+		for (int i = 0; i < state.proxies; i++) {
+			state.proxyInfos.get(i).setter().accept(state.targets.get(i));
+		}
+		return state.proxyInfos;
+	}
+
+	@Benchmark
+	public List<ProxyInfo<TestInterface>> setAll(Unresolved state) {
+		ProxyFactory.setAll(state.proxyInfos, state.targets);
+		return state.proxyInfos;
+	}
+}
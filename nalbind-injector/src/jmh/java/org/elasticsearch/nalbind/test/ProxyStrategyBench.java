@@ -0,0 +1,95 @@
+package org.elasticsearch.nalbind.test;
+
+import org.elasticsearch.nalbind.injector.ProxyFactory;
+import org.elasticsearch.nalbind.injector.ProxyFactory.ProxyInfo;
+import org.elasticsearch.nalbind.injector.ProxyStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Compares the {@link ProxyStrategy} options on the three things that matter:
+ * calling through a resolved proxy, creating a proxy, and resolving it.
+ * <p>
+ * The factory is shared by all invocations, as it would be by all the proxies of one injector,
+ * so the field strategies pay for their class once per interface, while {@link ProxyStrategy#INDY}
+ * pays for a class on every {@link #create}.
+ */
+@Warmup(time = 2000, timeUnit = MILLISECONDS, iterations = 3)
+@Measurement(time = 2000, timeUnit = MILLISECONDS, iterations = 3)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+public class ProxyStrategyBench {
+	static final int ITERS = 10;
+
+	public interface TestInterface {
+		String testMethod(String arg);
+	}
+
+	public static final class TestImplementation implements TestInterface {
+		@Override
+		public String testMethod(String arg) {
+			return arg;
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Factory {
+		@Param({"INDY", "VOLATILE_FIELD", "FENCED_FIELD"})
+		ProxyStrategy strategy;
+
+		ProxyFactory factory;
+		TestInterface resolvedProxy;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			factory = new ProxyFactory(strategy);
+			var proxyInfo = factory.generate(TestInterface.class);
+			proxyInfo.setter().accept(new TestImplementation());
+			resolvedProxy = proxyInfo.proxyObject();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Unresolved {
+		ProxyInfo<TestInterface> proxyInfo;
+		final TestImplementation target = new TestImplementation();
+
+		@Setup(Level.Invocation)
+		public void setup(Factory factory) {
+			proxyInfo = factory.factory.generate(TestInterface.class);
+		}
+	}
+
+	@Benchmark
+	public void call(Factory factory, Blackhole blackhole) {
+		for (int i = 0; i < ITERS; i++) {
+			blackhole.consume(factory.resolvedProxy.testMethod("arg"));
+		}
+	}
+
+	@Benchmark
+	public ProxyInfo<TestInterface> create(Factory factory) {
+		return factory.factory.generate(TestInterface.class);
+	}
+
+	@Benchmark
+	public ProxyInfo<TestInterface> resolve(Unresolved state) {
+		state.proxyInfo.setter().accept(state.target);
+		return state.proxyInfo;
+	}
+}
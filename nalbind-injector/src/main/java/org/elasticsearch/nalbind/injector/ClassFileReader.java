@@ -0,0 +1,225 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.elasticsearch.nalbind.api.Inject;
+import org.elasticsearch.nalbind.api.Injected;
+import org.elasticsearch.nalbind.api.Now;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.ParameterSpec;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.objectweb.asm.ClassReader.SKIP_CODE;
+import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
+import static org.objectweb.asm.ClassReader.SKIP_FRAMES;
+import static org.objectweb.asm.Opcodes.ASM9;
+
+/**
+ * Reads {@link SingletonMetadata} from class files, rather than {@link SingletonMetadata#reflect reflectively}.
+ * <p>
+ * Reflecting on a class's constructors or methods links the class, which includes verifying all of its bytecode.
+ * Reading the class file instead leaves that until the class is instantiated,
+ * so a {@link org.elasticsearch.nalbind.api.Lazy Lazy} singleton that's never used is never linked.
+ * The types the metadata refers to are still loaded, since specs are keyed by {@link Class},
+ * but they're neither linked nor initialized.
+ * <p>
+ * The exception is a class with {@link Injected} methods, which are resolved reflectively.
+ * Those are few, and are instantiated anyway.
+ */
+final class ClassFileReader {
+	private static final String INJECT = Type.getDescriptor(Inject.class);
+	private static final String INJECTED = Type.getDescriptor(Injected.class);
+	private static final String NOW = Type.getDescriptor(Now.class);
+
+	private ClassFileReader() { }
+
+	/**
+	 * @return null if the class file for <code>c</code> or one of its superclasses can't be found,
+	 * as for classes defined at runtime
+	 */
+	static SingletonMetadata read(Class<?> c) {
+		if (c.isPrimitive() || c.isArray() || c.isHidden()) {
+			return null;
+		}
+		List<MethodInfo> methods = methods(c);
+		if (methods == null) {
+			return null;
+		}
+		MethodInfo constructor = suitableConstructor(methods);
+		if (constructor == null) {
+			return new SingletonMetadata(null, List.of());
+		}
+		try {
+			ClassLoader loader = c.getClassLoader();
+			Type[] argumentTypes = Type.getArgumentTypes(constructor.descriptor);
+			List<ParameterSpec> parameters = new ArrayList<>(argumentTypes.length);
+			for (int i = 0; i < argumentTypes.length; i++) {
+				parameters.add(new ParameterSpec(load(argumentTypes[i], loader), constructor.nowParameters.get(i)));
+			}
+			List<Method> injectedMethods = new ArrayList<>();
+			for (Class<?> k = c; k != Object.class; k = k.getSuperclass()) {
+				if (isPlatformClass(k)) {
+					// Can't see the nalbind API, so can't have Injected methods
+					continue;
+				}
+				List<MethodInfo> kMethods = (k == c) ? methods : methods(k);
+				if (kMethods == null) {
+					return null;
+				}
+				for (var m: kMethods) {
+					if (m.injected) {
+						Method method = resolve(k, m);
+						SingletonMetadata.checkValidInjectedMethod(method);
+						injectedMethods.add(method);
+					}
+				}
+			}
+			LOGGER.trace("Read metadata for {} from its class file", c);
+			return new SingletonMetadata(
+				new ConstructorSpec(c, List.copyOf(parameters), List.copyOf(injectedMethods)),
+				SingletonMetadata.supertypes(c));
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			throw new IllegalStateException("Class file does not match class " + c.getName(), e);
+		}
+	}
+
+	/**
+	 * The same rule as {@link SingletonMetadata#reflect}: the only constructor, or else the only one with {@link Inject}.
+	 *
+	 * @return null if there's no suitable constructor
+	 */
+	private static MethodInfo suitableConstructor(List<MethodInfo> methods) {
+		MethodInfo only = null;
+		MethodInfo onlyInject = null;
+		int numConstructors = 0;
+		int numInject = 0;
+		for (var m: methods) {
+			if ("<init>".equals(m.name)) {
+				only = m;
+				numConstructors++;
+				if (m.inject) {
+					onlyInject = m;
+					numInject++;
+				}
+			}
+		}
+		if (numConstructors == 1) {
+			return only;
+		} else if (numInject == 1) {
+			return onlyInject;
+		} else {
+			return null;
+		}
+	}
+
+	private static boolean isPlatformClass(Class<?> c) {
+		ClassLoader loader = c.getClassLoader();
+		return loader == null || loader == ClassLoader.getPlatformClassLoader();
+	}
+
+	/**
+	 * @return the methods and constructors declared in the class file of <code>c</code>, or null if it can't be found
+	 */
+	private static List<MethodInfo> methods(Class<?> c) {
+		byte[] bytes;
+		// Class files are never encapsulated, so the module will give us this even if the package isn't open
+		try (InputStream in = c.getModule().getResourceAsStream(c.getName().replace('.', '/') + ".class")) {
+			if (in == null) {
+				LOGGER.trace("No class file for {}", c);
+				return null;
+			}
+			bytes = in.readAllBytes();
+		} catch (IOException e) {
+			LOGGER.debug("Unable to read class file for {}", c, e);
+			return null;
+		}
+		List<MethodInfo> result = new ArrayList<>();
+		new ClassReader(bytes).accept(new ClassVisitor(ASM9) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				var method = new MethodInfo(name, descriptor);
+				result.add(method);
+				return method;
+			}
+		}, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+		return result;
+	}
+
+	private static Method resolve(Class<?> declaringClass, MethodInfo m) throws ClassNotFoundException, NoSuchMethodException {
+		Type[] argumentTypes = Type.getArgumentTypes(m.descriptor);
+		Class<?>[] parameterTypes = new Class<?>[argumentTypes.length];
+		for (int i = 0; i < argumentTypes.length; i++) {
+			parameterTypes[i] = load(argumentTypes[i], declaringClass.getClassLoader());
+		}
+		return declaringClass.getDeclaredMethod(m.name, parameterTypes);
+	}
+
+	private static Class<?> load(Type type, ClassLoader loader) throws ClassNotFoundException {
+		if (type.getSort() == Type.ARRAY) {
+			// Class.forName wants the descriptor, with dots
+			return InjectionIndex.load(type.getDescriptor().replace('/', '.'), loader);
+		} else {
+			return InjectionIndex.load(type.getClassName(), loader);
+		}
+	}
+
+	/**
+	 * The annotations we care about on one method or constructor.
+	 */
+	private static final class MethodInfo extends MethodVisitor {
+		final String name;
+		final String descriptor;
+		boolean inject = false;
+		boolean injected = false;
+		final BitSet nowParameters = new BitSet();
+
+		/**
+		 * Parameter annotations are indexed from here, skipping any leading synthetic parameters,
+		 * like the enclosing instance of an inner class, to which javac doesn't attach annotations.
+		 */
+		private int firstAnnotableParameter = 0;
+
+		MethodInfo(String name, String descriptor) {
+			super(ASM9);
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+			if (INJECT.equals(annotationDescriptor)) {
+				inject = true;
+			} else if (INJECTED.equals(annotationDescriptor)) {
+				injected = true;
+			}
+			return null;
+		}
+
+		@Override
+		public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+			if (visible) {
+				firstAnnotableParameter = Type.getArgumentCount(descriptor) - parameterCount;
+			}
+		}
+
+		@Override
+		public AnnotationVisitor visitParameterAnnotation(int parameter, String annotationDescriptor, boolean visible) {
+			if (visible && NOW.equals(annotationDescriptor)) {
+				nowParameters.set(firstAnnotableParameter + parameter);
+			}
+			return null;
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ClassFileReader.class);
+}
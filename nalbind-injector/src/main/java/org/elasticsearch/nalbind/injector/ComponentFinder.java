@@ -0,0 +1,195 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.elasticsearch.nalbind.injector.spec.AliasSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Finds the strongly connected components of a {@link SpecGraph} using Tarjan's algorithm.
+ * <p>
+ * The depth-first search keeps its own stack rather than recursing,
+ * so it handles dependency chains of any length in O(V+E) time.
+ */
+final class ComponentFinder {
+	private ComponentFinder() { }
+
+	/**
+	 * @param followEdge for each edge of <code>graph</code>, whether to consider it
+	 * @return for each type id, an id for its component, shared by exactly those types in the same component
+	 */
+	static int[] components(SpecGraph graph, boolean[] followEdge) {
+		int numTypes = graph.numTypes();
+		int[] edgeStart = graph.edgeStart();
+		int[] edgeTargets = graph.edgeTargets();
+
+		int[] index = new int[numTypes];
+		Arrays.fill(index, -1);
+		int[] lowLink = new int[numTypes];
+		int[] component = new int[numTypes];
+		boolean[] onStack = new boolean[numTypes];
+		int[] stack = new int[numTypes];
+		int stackSize = 0;
+		int nextIndex = 0;
+
+		// Each type is visited at most once, so the call stack can't be deeper than this.
+		// For each type on the call stack, we keep the next of its edges to consider.
+		int[] callIds = new int[numTypes];
+		int[] callNextEdges = new int[numTypes];
+		for (int root = 0; root < numTypes; root++) {
+			if (index[root] >= 0) {
+				continue;
+			}
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			callIds[0] = root;
+			callNextEdges[0] = edgeStart[root];
+			int depth = 1;
+			while (depth > 0) {
+				int id = callIds[depth - 1];
+				int edge = callNextEdges[depth - 1];
+				if (edge < edgeStart[id + 1]) {
+					callNextEdges[depth - 1] = edge + 1;
+					if (followEdge[edge]) {
+						int successor = edgeTargets[edge];
+						if (index[successor] < 0) {
+							index[successor] = lowLink[successor] = nextIndex++;
+							stack[stackSize++] = successor;
+							onStack[successor] = true;
+							callIds[depth] = successor;
+							callNextEdges[depth] = edgeStart[successor];
+							depth++;
+						} else if (onStack[successor]) {
+							lowLink[id] = Math.min(lowLink[id], index[successor]);
+						}
+					}
+				} else {
+					depth--;
+					if (lowLink[id] == index[id]) {
+						int member;
+						do {
+							member = stack[--stackSize];
+							onStack[member] = false;
+							component[member] = index[id];
+						} while (member != id);
+					}
+					if (depth > 0) {
+						int caller = callIds[depth - 1];
+						lowLink[caller] = Math.min(lowLink[caller], lowLink[id]);
+					}
+				}
+			}
+		}
+		return component;
+	}
+
+	/**
+	 * A type must be instantiated after its <code>@Now</code> parameters, and an alias after its subtype,
+	 * so a cycle of such dependencies can't be satisfied in any order.
+	 *
+	 * @throws IllegalStateException listing every such cycle, with its full path
+	 */
+	static void checkForNowCycles(SpecGraph graph) {
+		var specs = graph.specs();
+		int[] edgeStart = graph.edgeStart();
+		int[] edgeTargets = graph.edgeTargets();
+		boolean[] edgeNow = graph.edgeNow();
+		int numTypes = graph.numTypes();
+
+		boolean[] mustPrecede = new boolean[edgeTargets.length];
+		for (int id = 0; id < numTypes; id++) {
+			boolean isAlias = specs[id] instanceof AliasSpec;
+			for (int edge = edgeStart[id]; edge < edgeStart[id + 1]; edge++) {
+				mustPrecede[edge] = isAlias || edgeNow[edge];
+			}
+		}
+		int[] component = components(graph, mustPrecede);
+
+		int[] componentSize = new int[numTypes];
+		for (int id = 0; id < numTypes; id++) {
+			componentSize[component[id]]++;
+		}
+		List<String> cycles = new ArrayList<>();
+		boolean[] reported = new boolean[numTypes];
+		int[] visitedFrom = new int[numTypes];
+		Arrays.fill(visitedFrom, -1);
+		int[] predecessor = new int[numTypes];
+		int[] queue = new int[numTypes];
+		for (int id = 0; id < numTypes; id++) {
+			if (!reported[component[id]] && (componentSize[component[id]] > 1 || hasSelfLoop(graph, mustPrecede, id))) {
+				reported[component[id]] = true;
+				cycles.add(cyclePath(graph, mustPrecede, component, id, visitedFrom, predecessor, queue));
+			}
+		}
+		if (!cycles.isEmpty()) {
+			LOGGER.debug("Found {} cycles of @Now dependencies", cycles.size());
+			throw new IllegalStateException("Cycle of @Now dependencies:" + cycles.stream().collect(joining("\n\t", "\n\t", "")));
+		}
+	}
+
+	private static boolean hasSelfLoop(SpecGraph graph, boolean[] followEdge, int id) {
+		for (int edge = graph.edgeStart()[id]; edge < graph.edgeStart()[id + 1]; edge++) {
+			if (followEdge[edge] && graph.edgeTargets()[edge] == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Breadth-first search within the component of <code>start</code> for the shortest way back to it.
+	 *
+	 * @param visitedFrom scratch space: the <code>start</code> of the search that last visited each type
+	 * @param predecessor scratch space, only read where this search has visited
+	 * @param queue scratch space
+	 * @return the names of the types along the cycle, starting and ending with <code>start</code>
+	 */
+	private static String cyclePath(
+		SpecGraph graph,
+		boolean[] followEdge,
+		int[] component,
+		int start,
+		int[] visitedFrom,
+		int[] predecessor,
+		int[] queue
+	) {
+		int[] edgeStart = graph.edgeStart();
+		int[] edgeTargets = graph.edgeTargets();
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = start;
+		visitedFrom[start] = start;
+		int last = -1;
+		while (last < 0) {
+			// The component is strongly connected, so we'll find our way back before the queue runs out
+			int id = queue[head++];
+			for (int edge = edgeStart[id]; edge < edgeStart[id + 1] && last < 0; edge++) {
+				int successor = edgeTargets[edge];
+				if (!followEdge[edge] || component[successor] != component[start]) {
+					continue;
+				}
+				if (successor == start) {
+					last = id;
+				} else if (visitedFrom[successor] != start) {
+					visitedFrom[successor] = start;
+					predecessor[successor] = id;
+					queue[tail++] = successor;
+				}
+			}
+		}
+		List<String> names = new ArrayList<>();
+		names.add(graph.types()[start].getName());
+		for (int id = last; id != start; id = predecessor[id]) {
+			names.addFirst(graph.types()[id].getName());
+		}
+		names.addFirst(graph.types()[start].getName());
+		return String.join(" -> ", names);
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ComponentFinder.class);
+}
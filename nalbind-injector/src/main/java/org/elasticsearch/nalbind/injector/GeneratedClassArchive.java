@@ -0,0 +1,153 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Keeps the named classes a {@link GeneratedClassLoader} defines outside the JVM,
+ * so that a class data sharing (CDS) archive can include them.
+ * <p>
+ * The JVM archives only classes that have a name, and shares an archived class with a later run
+ * only if that run defines a class of the same name with identical bytes.
+ * The generated wiring and the proxies of the field strategies qualify;
+ * {@link ProxyStrategy#INDY}, lazy and multicast proxies are hidden classes, which CDS can't archive.
+ * <p>
+ * A training run {@link InjectorOptions#exportGeneratedClasses exports} the classes to a directory,
+ * with a {@value #CLASS_LIST} file naming them, one per line, in the order they were defined.
+ * Later runs get them from a {@link InjectorOptions#generatedClassJar jar} of that directory.
+ * A class is defined as coming from the jar only if the jar's bytes are those we just generated,
+ * so a jar left over from different singletons does no harm.
+ * <p>
+ * Like {@link PlanCache}, this is only an optimization, so failures are logged, not thrown.
+ */
+final class GeneratedClassArchive {
+	static final GeneratedClassArchive NONE = new GeneratedClassArchive(null, null);
+
+	static final String CLASS_LIST = "classlist";
+
+	/**
+	 * Null to export nothing.
+	 */
+	private final Path exportDirectory;
+
+	/**
+	 * Null to define every class as usual.
+	 */
+	private final Path jar;
+
+	/**
+	 * Class bytes by binary name, read from the {@link #jar} the first time they're needed.
+	 */
+	private Map<String, byte[]> jarClasses;
+	private ProtectionDomain jarDomain;
+
+	/**
+	 * The names in the {@value #CLASS_LIST}, read from it the first time a class is exported,
+	 * so that exporting the same classes again, from this run or another, doesn't list them twice.
+	 */
+	private Set<String> exportedNames;
+
+	private GeneratedClassArchive(Path exportDirectory, Path jar) {
+		this.exportDirectory = exportDirectory;
+		this.jar = jar;
+	}
+
+	static GeneratedClassArchive of(InjectorOptions options) {
+		if (options.exportGeneratedClasses() == null && options.generatedClassJar() == null) {
+			return NONE;
+		} else {
+			return new GeneratedClassArchive(options.exportGeneratedClasses(), options.generatedClassJar());
+		}
+	}
+
+	/**
+	 * @return the protection domain with which to define the class, whose code source is the jar
+	 * if it has this very class; otherwise null
+	 */
+	synchronized ProtectionDomain protectionDomain(String name, byte[] bytes, ClassLoader loader) {
+		if (jar == null) {
+			return null;
+		}
+		if (jarClasses == null) {
+			jarClasses = readJar();
+		}
+		byte[] archived = jarClasses.get(name);
+		if (archived == null) {
+			LOGGER.debug("Generated class {} is not in {}", name, jar);
+			return null;
+		} else if (!Arrays.equals(archived, bytes)) {
+			LOGGER.debug("Generated class {} differs from the one in {}", name, jar);
+			return null;
+		}
+		if (jarDomain == null) {
+			try {
+				jarDomain = new ProtectionDomain(new CodeSource(jar.toUri().toURL(), (CodeSigner[]) null), null, loader, null);
+			} catch (MalformedURLException e) {
+				throw new AssertionError("A path should have a valid URL", e);
+			}
+		}
+		return jarDomain;
+	}
+
+	private Map<String, byte[]> readJar() {
+		Map<String, byte[]> result = new HashMap<>();
+		try (var jarFile = new JarFile(jar.toFile())) {
+			for (var entry: jarFile.stream().toList()) {
+				String entryName = entry.getName();
+				if (entryName.endsWith(".class")) {
+					try (var in = jarFile.getInputStream(entry)) {
+						result.put(entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.'), in.readAllBytes());
+					}
+				}
+			}
+			LOGGER.debug("Read {} generated classes from {}", result.size(), jar);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.info("Ignoring unusable generated class jar {}", jar, e);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the class file, replacing any of the same name,
+	 * and appends the name to the {@value #CLASS_LIST} unless it's already there.
+	 */
+	synchronized void export(String name, byte[] bytes) {
+		if (exportDirectory == null) {
+			return;
+		}
+		try {
+			Path file = exportDirectory.resolve(name.replace('.', '/') + ".class");
+			Files.createDirectories(file.getParent());
+			Files.write(file, bytes);
+			Path classList = exportDirectory.resolve(CLASS_LIST);
+			if (exportedNames == null) {
+				exportedNames = Files.exists(classList) ? new LinkedHashSet<>(Files.readAllLines(classList, UTF_8)) : new LinkedHashSet<>();
+			}
+			if (exportedNames.add(name)) {
+				Files.writeString(classList, name + "\n", UTF_8, CREATE, APPEND);
+			}
+			LOGGER.debug("Exported generated class {} to {}", name, exportDirectory);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Unable to export generated class {} to {}", name, exportDirectory, e);
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GeneratedClassArchive.class);
+}
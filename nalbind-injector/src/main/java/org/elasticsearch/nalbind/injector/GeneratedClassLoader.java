@@ -0,0 +1,145 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.V1_8;
+import static org.objectweb.asm.Type.getInternalName;
+import static org.objectweb.asm.Type.getMethodDescriptor;
+import static org.objectweb.asm.Type.getType;
+
+/**
+ * Defines classes generated by nalbind.
+ * <p>
+ * The injected classes may come from module layers that our own class loader can't see,
+ * so references from generated code to those classes are resolved by name
+ * using classes {@link #register registered} in advance.
+ * <p>
+ * Named classes go through a {@link GeneratedClassArchive}, so they can be shared between runs.
+ */
+final class GeneratedClassLoader extends ClassLoader {
+	private final Map<String, Class<?>> registeredClasses = new ConcurrentHashMap<>();
+	private final GeneratedClassArchive archive;
+
+	/**
+	 * A full-privilege lookup on a class defined by this loader, through which we define hidden classes.
+	 */
+	private volatile MethodHandles.Lookup anchorLookup;
+
+	GeneratedClassLoader() {
+		this(GeneratedClassArchive.NONE);
+	}
+
+	GeneratedClassLoader(GeneratedClassArchive archive) {
+		super(GeneratedClassLoader.class.getClassLoader());
+		this.archive = archive;
+	}
+
+	/**
+	 * Makes <code>c</code> available to the generated code by name.
+	 * If its package is opened to nalbind, it is also opened to the generated code;
+	 * otherwise, the generated code can access <code>c</code> only if its package is exported.
+	 */
+	void register(Class<?> c) {
+		while (c.isArray()) {
+			c = c.getComponentType();
+		}
+		if (c.isPrimitive() || registeredClasses.containsKey(c.getName())) {
+			return;
+		}
+		Module module = c.getModule();
+		String packageName = c.getPackageName();
+		if (!module.isExported(packageName, getUnnamedModule()) && module.isOpen(packageName, GeneratedClassLoader.class.getModule())) {
+			module.addOpens(packageName, getUnnamedModule());
+		}
+		registeredClasses.put(c.getName(), c);
+	}
+
+	Class<?> define(String name, byte[] bytes) {
+		Class<?> result = defineClass(name, bytes, 0, bytes.length, archive.protectionDomain(name, bytes, this));
+		archive.export(name, bytes);
+		return result;
+	}
+
+	/**
+	 * @return whether this loader has already {@link #define defined} a class of the given binary name
+	 */
+	boolean isDefined(String name) {
+		return findLoadedClass(name) != null;
+	}
+
+	/**
+	 * Defines a hidden class in this loader, in the unnamed package.
+	 * Because the class is hidden, the same <code>bytes</code> can be defined any number of times.
+	 *
+	 * @param classData available to the hidden class via {@link MethodHandles#classData}
+	 * @return a full-privilege lookup on the new class
+	 */
+	MethodHandles.Lookup defineHidden(byte[] bytes, Object classData) {
+		try {
+			return anchorLookup().defineHiddenClassWithClassData(bytes, classData, true);
+		} catch (IllegalAccessException e) {
+			throw new AssertionError("Should be able to define hidden classes in our own loader", e);
+		}
+	}
+
+	private MethodHandles.Lookup anchorLookup() {
+		var result = anchorLookup;
+		if (result == null) {
+			synchronized (this) {
+				result = anchorLookup;
+				if (result == null) {
+					anchorLookup = result = defineAnchor();
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		Class<?> registered = registeredClasses.get(name);
+		if (registered == null) {
+			return super.loadClass(name, resolve);
+		} else {
+			return registered;
+		}
+	}
+
+	/**
+	 * {@link MethodHandles#privateLookupIn} doesn't confer the privileges needed to define hidden classes,
+	 * so the anchor class supplies its own lookup.
+	 */
+	private MethodHandles.Lookup defineAnchor() {
+		String lookupDescriptor = getMethodDescriptor(getType(MethodHandles.Lookup.class));
+		ClassWriter cw = new ClassWriter(COMPUTE_MAXS);
+		cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, ANCHOR_CLASS_NAME, null, getInternalName(Object.class), null);
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "lookup", lookupDescriptor, null, null);
+		mv.visitCode();
+		mv.visitMethodInsn(INVOKESTATIC, getInternalName(MethodHandles.class), "lookup", lookupDescriptor, false);
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+
+		Class<?> anchor = define(ANCHOR_CLASS_NAME, cw.toByteArray());
+		try {
+			return (MethodHandles.Lookup) anchor.getMethod("lookup").invoke(null);
+		} catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+			throw new AssertionError("Should be able to call the generated method", e);
+		}
+	}
+
+	private static final String ANCHOR_CLASS_NAME = "NALBIND_ANCHOR";
+}
@@ -0,0 +1,200 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.ParameterSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * {@link SingletonMetadata} precomputed at compile time by the <code>nalbind-processor</code>
+ * annotation processor, so we can avoid scanning classes reflectively at startup.
+ * <p>
+ * Each module has its own index. Classes from modules without an index
+ * simply aren't found here, and the caller should fall back to {@link SingletonMetadata#reflect}.
+ * <p>
+ * The index is a UTF-8 text resource in which each line is a keyword followed by space-separated binary class names:
+ *
+ * <pre>
+ * nalbind-injection-index 1
+ * singleton com.example.MyServiceImpl
+ * constructor
+ * parameter com.example.OtherService
+ * parameter now com.example.ThirdService
+ * injected com.example.MyServiceImpl registerListeners java.util.Collection
+ * alias com.example.MyService
+ * </pre>
+ *
+ * A <code>singleton</code> with no <code>constructor</code> line has no suitable constructor.
+ * The format must be kept in sync with <code>InjectionIndexProcessor</code>.
+ */
+final class InjectionIndex {
+	static final String RESOURCE_NAME = "META-INF/nalbind/injection-index";
+	static final String HEADER = "nalbind-injection-index 1";
+
+	private final Map<String, Entry> entriesByClassName;
+
+	private InjectionIndex(Map<String, Entry> entriesByClassName) {
+		this.entriesByClassName = entriesByClassName;
+	}
+
+	static InjectionIndex empty() {
+		return new InjectionIndex(Map.of());
+	}
+
+	/**
+	 * Reads the indexes of all the given modules that have one, in parallel,
+	 * and those on the class path of <code>classPath</code>.
+	 *
+	 * @param classPath null to skip the class path
+	 */
+	static InjectionIndex of(List<Module> modules, ClassLoader classPath) {
+		Map<String, Entry> entries = new HashMap<>();
+		modules.parallelStream()
+			.map(InjectionIndex::read)
+			.forEachOrdered(entries::putAll);
+		if (classPath != null) {
+			try {
+				for (var url: ProviderScanner.resources(classPath, RESOURCE_NAME)) {
+					try (InputStream in = url.openStream()) {
+						entries.putAll(parse(in, url.toString()));
+					}
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to read injection index from class path", e);
+			}
+		}
+		return new InjectionIndex(entries);
+	}
+
+	private static Map<String, Entry> read(Module m) {
+		try (InputStream in = m.getResourceAsStream(RESOURCE_NAME)) {
+			if (in == null) {
+				LOGGER.debug("No injection index for module {}", m.getName());
+				return Map.of();
+			} else {
+				return parse(in, "module " + m.getName());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read injection index for module " + m.getName(), e);
+		}
+	}
+
+	/**
+	 * @return null if <code>c</code> is not indexed
+	 */
+	SingletonMetadata metadataFor(Class<?> c) {
+		Entry entry = entriesByClassName.get(c.getName());
+		if (entry == null) {
+			return null;
+		}
+		LOGGER.trace("Using indexed metadata for {}", c);
+		try {
+			return entry.resolve(c);
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			throw new IllegalStateException("Injection index does not match class " + c.getName(), e);
+		}
+	}
+
+	/**
+	 * @param source where the index came from, for error messages
+	 */
+	private static Map<String, Entry> parse(InputStream in, String source) throws IOException {
+		var reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+		if (!HEADER.equals(reader.readLine())) {
+			LOGGER.warn("Ignoring injection index with unrecognized format in {}", source);
+			return Map.of();
+		}
+		Map<String, Entry> result = new HashMap<>();
+		Entry current = null;
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			if (line.isBlank()) {
+				continue;
+			}
+			String[] words = line.split(" ");
+			switch (words[0]) {
+				case "singleton" -> {
+					current = new Entry();
+					result.put(words[1], current);
+				}
+				case "constructor" -> requireEntry(current, line).hasConstructor = true;
+				case "parameter" -> {
+					boolean now = words.length == 3 && "now".equals(words[1]);
+					requireEntry(current, line).parameters.add(new RawParameter(words[words.length - 1], now));
+				}
+				case "injected" -> requireEntry(current, line).injectedMethods.add(new RawMethod(words[1], words[2], words[3]));
+				case "alias" -> requireEntry(current, line).supertypes.add(words[1]);
+				default -> throw new IllegalStateException("Unexpected line in injection index of " + source + ": " + line);
+			}
+		}
+		return result;
+	}
+
+	private static Entry requireEntry(Entry current, String line) {
+		if (current == null) {
+			throw new IllegalStateException("Injection index line appears before any singleton: " + line);
+		}
+		return current;
+	}
+
+	private static final class Entry {
+		boolean hasConstructor = false;
+		final List<RawParameter> parameters = new ArrayList<>();
+		final List<RawMethod> injectedMethods = new ArrayList<>();
+		final List<String> supertypes = new ArrayList<>();
+
+		SingletonMetadata resolve(Class<?> c) throws ClassNotFoundException, NoSuchMethodException {
+			if (!hasConstructor) {
+				return new SingletonMetadata(null, List.of());
+			}
+			ClassLoader loader = c.getClassLoader();
+			List<ParameterSpec> parameterSpecs = new ArrayList<>(parameters.size());
+			for (var p: parameters) {
+				parameterSpecs.add(new ParameterSpec(load(p.typeName(), loader), p.now()));
+			}
+			List<Method> methods = new ArrayList<>(injectedMethods.size());
+			for (var m: injectedMethods) {
+				methods.add(load(m.declaringClassName(), loader).getDeclaredMethod(m.name(), load(m.parameterTypeName(), loader)));
+			}
+			List<Class<?>> supertypeClasses = new ArrayList<>(supertypes.size());
+			for (var s: supertypes) {
+				supertypeClasses.add(load(s, loader));
+			}
+			return new SingletonMetadata(
+				new ConstructorSpec(c, List.copyOf(parameterSpecs), List.copyOf(methods)),
+				List.copyOf(supertypeClasses));
+		}
+	}
+
+	private record RawParameter(String typeName, boolean now) { }
+	private record RawMethod(String declaringClassName, String name, String parameterTypeName) { }
+
+	/**
+	 * Loads, without initializing, the class with the given binary name, or the given primitive type.
+	 */
+	static Class<?> load(String name, ClassLoader loader) throws ClassNotFoundException {
+		return switch (name) {
+			case "boolean" -> boolean.class;
+			case "byte" -> byte.class;
+			case "char" -> char.class;
+			case "short" -> short.class;
+			case "int" -> int.class;
+			case "long" -> long.class;
+			case "float" -> float.class;
+			case "double" -> double.class;
+			default -> Class.forName(name, false, loader);
+		};
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(InjectionIndex.class);
+}
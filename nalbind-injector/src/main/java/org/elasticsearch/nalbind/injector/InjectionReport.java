@@ -0,0 +1,215 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.elasticsearch.nalbind.injector.spec.AliasSpec;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Describes what an {@link Injector} did and how long it took.
+ *
+ * @param phases in the order they ran
+ * @param singletons in the order they were constructed, or would have been if they had not been
+ *                   {@link org.elasticsearch.nalbind.api.Lazy lazy}
+ * @param proxiedTypes the types for which proxies were created
+ * @param criticalPath the chain of singletons, each a <code>@Now</code> dependency of the next,
+ *                     with the greatest total constructor time.
+ *                     Even with unlimited parallelism, startup can't finish sooner than this.
+ */
+public record InjectionReport(
+	List<Phase> phases,
+	List<Singleton> singletons,
+	List<Class<?>> proxiedTypes,
+	List<Class<?>> criticalPath
+) {
+	public record Phase(String name, Duration time) { }
+
+	/**
+	 * @param constructorTime {@link Duration#ZERO} when constructors were called from
+	 *                        {@link InjectorOptions#generatedWiring generated wiring}, which isn't timed individually,
+	 *                        or for a {@link org.elasticsearch.nalbind.api.Lazy lazy} singleton that wasn't needed during startup
+	 */
+	public record Singleton(Class<?> type, Duration constructorTime, List<Dependency> dependencies) { }
+
+	/**
+	 * @param parameterType the constructor parameter's declared type
+	 * @param implementation the singleton injected for it, or <code>parameterType</code> itself
+	 *                       if it was provided by the parent of a {@link Injector#createChild child} injector
+	 */
+	public record Dependency(Class<?> parameterType, Class<?> implementation, boolean now) { }
+
+	/**
+	 * @param constructorTimes for each {@link ConstructorSpec} in <code>plan</code> that was timed
+	 */
+	static InjectionReport of(
+		List<Phase> phases,
+		Collection<UnambiguousSpec> plan,
+		List<Class<?>> proxiedTypes,
+		Map<Class<?>, Duration> constructorTimes
+	) {
+		List<Singleton> singletons = new ArrayList<>();
+		Map<Class<?>, Class<?>> implementations = new HashMap<>();
+		for (var spec: plan) {
+			switch (spec) {
+				case ConstructorSpec c -> implementations.put(c.requestedType(), c.requestedType());
+				case AliasSpec(var requestedType, var subtype) -> implementations.put(requestedType, implementations.get(subtype));
+			}
+		}
+		for (var spec: plan) {
+			if (spec instanceof ConstructorSpec c) {
+				var dependencies = c.parameters().stream()
+					.map(p -> new Dependency(p.type(), implementations.getOrDefault(p.type(), p.type()), p.now()))
+					.toList();
+				singletons.add(new Singleton(
+					c.requestedType(),
+					constructorTimes.getOrDefault(c.requestedType(), Duration.ZERO),
+					dependencies));
+			}
+		}
+		return new InjectionReport(List.copyOf(phases), List.copyOf(singletons), List.copyOf(proxiedTypes), criticalPath(singletons));
+	}
+
+	/**
+	 * The longest path through <code>@Now</code> edges, weighted by constructor time,
+	 * breaking ties by number of singletons.
+	 * Relies on <code>singletons</code> being in construction order, which is a topological order of those edges.
+	 */
+	private static List<Class<?>> criticalPath(List<Singleton> singletons) {
+		record PathEnd(Singleton last, PathEnd previous, long nanos, int length) {
+			boolean isLongerThan(PathEnd other) {
+				return other == null || nanos > other.nanos || (nanos == other.nanos && length > other.length);
+			}
+		}
+		Map<Class<?>, PathEnd> longestPathTo = new HashMap<>();
+		PathEnd longest = null;
+		for (var s: singletons) {
+			PathEnd longestPrefix = null;
+			for (var d: s.dependencies()) {
+				if (d.now()) {
+					PathEnd candidate = longestPathTo.get(d.implementation());
+					if (candidate != null && candidate.isLongerThan(longestPrefix)) {
+						longestPrefix = candidate;
+					}
+				}
+			}
+			long prefixNanos = (longestPrefix == null) ? 0 : longestPrefix.nanos();
+			int prefixLength = (longestPrefix == null) ? 0 : longestPrefix.length();
+			var pathEnd = new PathEnd(s, longestPrefix, prefixNanos + s.constructorTime().toNanos(), prefixLength + 1);
+			longestPathTo.put(s.type(), pathEnd);
+			if (pathEnd.isLongerThan(longest)) {
+				longest = pathEnd;
+			}
+		}
+		List<Class<?>> result = new ArrayList<>();
+		for (var e = longest; e != null; e = e.previous()) {
+			result.addFirst(e.last().type());
+		}
+		return List.copyOf(result);
+	}
+
+	public Duration criticalPathTime() {
+		Set<Class<?>> onPath = Set.copyOf(criticalPath);
+		return singletons.stream()
+			.filter(s -> onPath.contains(s.type()))
+			.map(Singleton::constructorTime)
+			.reduce(Duration.ZERO, Duration::plus);
+	}
+
+	public String toJson() {
+		Set<Class<?>> onPath = Set.copyOf(criticalPath);
+		StringBuilder sb = new StringBuilder("{\n");
+		sb.append("\t\"phases\": [");
+		sb.append(phases.stream()
+			.map(p -> "\n\t\t{\"name\": " + jsonString(p.name()) + ", \"nanos\": " + p.time().toNanos() + "}")
+			.collect(joining(",")));
+		sb.append("\n\t],\n");
+		sb.append("\t\"singletons\": [");
+		sb.append(singletons.stream()
+			.map(s -> "\n\t\t{\"type\": " + jsonString(s.type().getName())
+				+ ", \"constructorNanos\": " + s.constructorTime().toNanos()
+				+ ", \"criticalPath\": " + onPath.contains(s.type())
+				+ ", \"dependencies\": [" + s.dependencies().stream()
+					.map(d -> "{\"parameterType\": " + jsonString(d.parameterType().getName())
+						+ ", \"implementation\": " + jsonString(d.implementation().getName())
+						+ ", \"now\": " + d.now() + "}")
+					.collect(joining(", "))
+				+ "]}")
+			.collect(joining(",")));
+		sb.append("\n\t],\n");
+		sb.append("\t\"proxiedTypes\": [");
+		sb.append(proxiedTypes.stream()
+			.map(c -> jsonString(c.getName()))
+			.collect(joining(", ")));
+		sb.append("],\n");
+		sb.append("\t\"criticalPath\": [");
+		sb.append(criticalPath.stream()
+			.map(c -> jsonString(c.getName()))
+			.collect(joining(", ")));
+		sb.append("],\n");
+		sb.append("\t\"criticalPathNanos\": ").append(criticalPathTime().toNanos()).append("\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Edges point from each singleton to its dependencies.
+	 * <code>@Now</code> edges are solid, and the others, which may have been satisfied by a proxy, are dashed.
+	 * The critical path is drawn in red.
+	 */
+	public String toDot() {
+		Set<Class<?>> onPath = Set.copyOf(criticalPath);
+		Set<List<Class<?>>> pathEdges = new HashSet<>();
+		for (int i = 1; i < criticalPath.size(); i++) {
+			pathEdges.add(List.of(criticalPath.get(i), criticalPath.get(i - 1)));
+		}
+		StringBuilder sb = new StringBuilder("digraph nalbind {\n");
+		sb.append("\tnode [shape=box];\n");
+		for (var s: singletons) {
+			sb.append("\t").append(dotId(s.type()))
+				.append(" [label=\"").append(s.type().getSimpleName())
+				.append("\\n").append(formatMillis(s.constructorTime())).append("\"")
+				.append(onPath.contains(s.type()) ? ", color=red" : "")
+				.append("];\n");
+		}
+		for (var s: singletons) {
+			for (var d: s.dependencies()) {
+				List<String> attributes = new ArrayList<>();
+				if (!d.now()) {
+					attributes.add("style=dashed");
+				}
+				if (pathEdges.contains(List.of(s.type(), d.implementation()))) {
+					attributes.add("color=red");
+					attributes.add("penwidth=2");
+				}
+				sb.append("\t").append(dotId(s.type())).append(" -> ").append(dotId(d.implementation()));
+				if (!attributes.isEmpty()) {
+					sb.append(" [").append(String.join(", ", attributes)).append("]");
+				}
+				sb.append(";\n");
+			}
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static String jsonString(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private static String dotId(Class<?> type) {
+		return "\"" + type.getName() + "\"";
+	}
+
+	private static String formatMillis(Duration d) {
+		return String.format("%.3fms", d.toNanos() / 1_000_000.0);
+	}
+}
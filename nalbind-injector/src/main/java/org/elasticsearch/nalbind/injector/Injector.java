@@ -1,12 +1,11 @@
 package org.elasticsearch.nalbind.injector;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
@@ -14,11 +13,14 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Stream;
-import org.elasticsearch.nalbind.api.Inject;
-import org.elasticsearch.nalbind.api.InjectableSingleton;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import org.elasticsearch.nalbind.api.Injected;
-import org.elasticsearch.nalbind.api.Now;
+import org.elasticsearch.nalbind.api.Lazy;
 import org.elasticsearch.nalbind.injector.spec.AliasSpec;
 import org.elasticsearch.nalbind.injector.spec.AmbiguousSpec;
 import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
@@ -29,266 +31,830 @@ import org.slf4j.LoggerFactory;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.newSetFromMap;
-import static java.util.Objects.requireNonNull;
+import static java.util.Collections.unmodifiableList;
 import static java.util.stream.Collectors.joining;
 
-public class Injector {
-	private final Map<Class<?>, Object> instances = new HashMap<>();
-	private final List<ProxyFactory.ProxyInfo<?>> proxies = new ArrayList<>();
+public class Injector implements AutoCloseable {
+	/**
+	 * The tables from here to {@link #lazyProxies} are replaced by immutable copies if {@link InjectorOptions#compact compact}.
+	 */
+	private Map<Class<?>, Object> instances = new HashMap<>();
 
-	private Injector(){}
+	/**
+	 * Every constructed object, listed under its own class and each of its {@link SingletonMetadata#supertypes supertypes},
+	 * in the order in which the objects were constructed.
+	 */
+	private Map<Class<?>, List<Object>> instancesByType = new HashMap<>();
 
+	/**
+	 * Only needed until the proxies are resolved.
+	 */
+	private List<ProxyFactory.ProxyInfo<?>> proxies = new ArrayList<>();
+
+	/**
+	 * The {@link Lazy} singletons that are still lazy, under their own class and each of the types they're aliased to.
+	 */
+	private Map<Class<?>, LazySingleton> lazySingletons = new HashMap<>();
+
+	/**
+	 * The {@link Lazy} singletons, under each type that {@link #getInstances} would list them for.
+	 */
+	private Map<Class<?>, List<LazySingleton>> lazySingletonsByType = new HashMap<>();
+
+	/**
+	 * The proxies that stand in for lazy singletons, by the interface they implement.
+	 */
+	private Map<Class<?>, Object> lazyProxies = new LinkedHashMap<>();
+
+	/**
+	 * What {@link #getInstance} returns for each type, or the {@link LazySingleton} that supplies it,
+	 * published once this injector is ready, and for a root injector, republished with the entries
+	 * of each layer {@link #addClasses added} to it.
+	 * Empty until then, so that lookups go to the parent.
+	 */
+	private volatile InstanceTable lookupTable = InstanceTable.EMPTY;
+
+	/**
+	 * Set once every eager singleton is constructed and every proxy resolved,
+	 * at which point lazy singletons can be instantiated.
+	 */
+	private volatile boolean ready = false;
+
+	private final InjectorOptions options;
+	private InjectionIndex index;
+
+	/**
+	 * Provides the types this injector doesn't; null for a root injector.
+	 */
+	private final Injector parent;
+
+	/**
+	 * The injectors that instantiated the singletons {@link #addClasses added} to this one,
+	 * in the order they were added. Each has this injector as its parent.
+	 */
+	private final List<Injector> addedLayers = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Whether this injector is one of its parent's {@link #addedLayers},
+	 * in which case the parent's {@link #getInstances} already lists this injector's singletons.
+	 */
+	private volatile boolean attached = false;
+
+	/**
+	 * Every {@link Injected} method that has been called, so it can be called again
+	 * with the singletons of any layer {@link #addClasses added} later.
+	 */
+	private final List<InjectedMethodCall> injectedMethodCalls = new CopyOnWriteArrayList<>();
+
+	private record InjectedMethodCall(Object target, Invokers.InjectedMethod method) { }
+
+	private final ArrayList<InjectionReport.Phase> phases = new ArrayList<>();
+
+	/**
+	 * Written concurrently by {@link ParallelPlanExecutor}.
+	 */
+	private Map<Class<?>, Duration> constructorTimes = new ConcurrentHashMap<>();
+	private InjectionReport report;
+
+	/**
+	 * Everything this injector planned, including the {@link Lazy} singletons, from which {@link #close} determines the order.
+	 */
+	private List<UnambiguousSpec> plan = List.of();
+
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	/**
+	 * Defines all the classes we generate, so they can be unloaded along with this injector.
+	 */
+	private final GeneratedClassLoader classLoader;
+	private final ProxyFactory proxyFactory;
+
+	/**
+	 * The constructor and the individual phases of {@link #doInjection} are package-private
+	 * so the startup benchmarks can measure them separately.
+	 */
+	Injector(InjectorOptions options, InjectionIndex index) {
+		this(options, index, null);
+	}
+
+	private Injector(InjectorOptions options, InjectionIndex index, Injector parent) {
+		this.options = options;
+		this.index = index;
+		this.parent = parent;
+		this.classLoader = new GeneratedClassLoader(GeneratedClassArchive.of(options));
+		this.proxyFactory = new ProxyFactory(classLoader, options.proxyStrategy());
+	}
+
+	/**
+	 * Uses the injection index generated at compile time by <code>nalbind-processor</code>
+	 * for those modules that have one, and reflection for the others.
+	 */
 	public static Injector withInjectableSingletonsProvidedBy(ModuleLayer layer) {
-		return withClasses(injectableSingletonsProvidedBy(layer));
+		return withInjectableSingletonsProvidedBy(layer, InjectorOptions.defaults());
+	}
+
+	/**
+	 * @see InjectorOptions#scanParentLayers
+	 * @see InjectorOptions#scanClassPath
+	 */
+	public static Injector withInjectableSingletonsProvidedBy(ModuleLayer layer, InjectorOptions options) {
+		var modules = ProviderScanner.modules(layer, options.scanParentLayers());
+		Injector result = new Injector(options, InjectionIndex.of(modules, options.scanClassPath()));
+		var classesToProcess = result.timed("scanProviders", () -> ProviderScanner.scan(modules, options.scanClassPath()));
+		result.doInjection(classesToProcess, layer);
+		return result;
 	}
 
 	public static Injector withClasses(Collection<Class<?>> classesToProcess) {
-		Injector result = new Injector();
-		result.doInjection(specMap(classesToProcess));
+		return withClasses(classesToProcess, InjectorOptions.defaults());
+	}
+
+	public static Injector withClasses(Collection<Class<?>> classesToProcess, InjectorOptions options) {
+		return withClasses(classesToProcess, null, InjectionIndex.empty(), options);
+	}
+
+	/**
+	 * @param layer the layer that provided <code>classesToProcess</code>, or null if there isn't one
+	 */
+	private static Injector withClasses(
+		Collection<Class<?>> classesToProcess,
+		ModuleLayer layer,
+		InjectionIndex index,
+		InjectorOptions options
+	) {
+		Injector result = new Injector(options, index);
+		result.doInjection(classesToProcess, layer);
+		return result;
+	}
+
+	/**
+	 * Like {@link #createChild(Collection, InjectorOptions)}, with options suited to small injectors:
+	 * proxies are created {@link InjectorOptions#proxiesOnlyForCycles only for cycles},
+	 * because defining proxy classes would otherwise dominate the cost.
+	 */
+	public Injector createChild(Collection<Class<?>> classesToProcess) {
+		return createChild(classesToProcess, InjectorOptions.defaults().proxiesOnlyForCycles(true));
+	}
+
+	/**
+	 * Creates an injector for a narrower scope, such as a single index or request,
+	 * that instantiates only <code>classesToProcess</code>.
+	 * Their other dependencies, and any types requested from the child that it doesn't provide itself,
+	 * are satisfied by the objects in this injector, which is left unchanged.
+	 * <p>
+	 * A type provided by both takes the child's object, so a child can override its parent's singletons.
+	 * {@link #getInstances} on a child lists the parent's objects first, followed by the child's own.
+	 * <p>
+	 * This injector must not be used to create children until it's fully constructed.
+	 * After that, any number of children can be created concurrently.
+	 */
+	public Injector createChild(Collection<Class<?>> classesToProcess, InjectorOptions options) {
+		Injector result = new Injector(options, index, this);
+		result.doInjection(classesToProcess, null);
 		return result;
 	}
 
+	/**
+	 * Like {@link #addClasses}, for the singletons provided by <code>layer</code>,
+	 * such as a plugin installed after this injector was created.
+	 */
+	public InjectionReport addInjectableSingletonsProvidedBy(ModuleLayer layer) {
+		var modules = ProviderScanner.modules(layer, options.scanParentLayers());
+		return addClasses(
+			ProviderScanner.scan(modules, options.scanClassPath()),
+			layer,
+			InjectionIndex.of(modules, options.scanClassPath()));
+	}
+
+	/**
+	 * Instantiates those of <code>classesToProcess</code> that this injector doesn't have already,
+	 * without rebuilding or disturbing the existing singletons.
+	 * <p>
+	 * Only the new classes are planned and instantiated, much as for a {@link #createChild child} injector:
+	 * their other dependencies are satisfied by the existing singletons,
+	 * while among themselves, the new singletons take precedence.
+	 * Afterward, they're available from this injector like any others,
+	 * except that a type that already had a singleton keeps it as far as {@link #getInstance} is concerned.
+	 * <p>
+	 * Every {@link Injected} method that has already been called is called again
+	 * with a collection of just the new singletons of the type it wants, if there are any,
+	 * or if it takes a listener interface, with a multicast proxy for all of them, old and new.
+	 * <p>
+	 * Classes are added one batch at a time, and this injector can be used concurrently throughout,
+	 * except that a {@link Lazy} singleton instantiated meanwhile might miss the new singletons in its {@link Injected} methods.
+	 *
+	 * @return what happened while adding the classes
+	 */
+	public InjectionReport addClasses(Collection<Class<?>> classesToProcess) {
+		return addClasses(classesToProcess, null, index);
+	}
+
+	private InjectionReport addClasses(Collection<Class<?>> classesToProcess, ModuleLayer layer, InjectionIndex layerIndex) {
+		if (attached) {
+			return parent.addClasses(classesToProcess, layer, layerIndex);
+		}
+		synchronized (addedLayers) {
+			List<Class<?>> newClasses = classesToProcess.stream()
+				.filter(c -> !provides(c))
+				.toList();
+			LOGGER.debug("Adding {} new classes", newClasses.size());
+			List<InjectedMethodCall> existingCalls = new ArrayList<>(injectedMethodCalls);
+			addedLayers.forEach(l -> existingCalls.addAll(l.injectedMethodCalls));
+
+			Injector added = new Injector(options, layerIndex, this);
+			added.doInjection(newClasses, layer);
+			added.attached = true;
+			addedLayers.add(added);
+			// Existing singletons take precedence
+			lookupTable = lookupTable.plus(added.lookupTable);
+
+			for (var call: existingCalls) {
+				var method = call.method();
+				var newObjects = added.ownInstances(method.elementType());
+				if (!newObjects.isEmpty()) {
+					// A multicast proxy is immutable, so it's replaced by one for all the objects
+					var objects = method.multicast() ? getInstances(method.elementType()) : newObjects;
+					method.invoke(call.target(), method.argument(objects, proxyFactory));
+				}
+			}
+			return added.report();
+		}
+	}
+
+	/**
+	 * If <code>type</code> is provided by a {@link Lazy} singleton, instantiates it if it hasn't been already.
+	 * <p>
+	 * Once the injector is ready, this is safe to call from any number of threads.
+	 * It takes no locks and allocates nothing, except to instantiate a lazy singleton.
+	 */
 	public <T> T getInstance(Class<T> type) {
-		Object instance = instances.get(type);
+		Object instance = lookupTable.get(type);
 		if (instance == null) {
+			if (parent != null) {
+				return parent.getInstance(type);
+			}
 			throw new IllegalStateException("No injectable instance of " + type);
+		} else if (instance instanceof LazySingleton lazy) {
+			instance = lazy.get();
 		}
 		return type.cast(instance);
 	}
 
-	private void doInjection(Map<Class<?>, InjectionSpec> specsByClass) {
-		Collection<UnambiguousSpec> plan = instantiationPlan(specsByClass);
-		createProxies(plan);
-		executeInstantiationPlan(plan);
-		resolveProxies();
-		reportInjectedObjects(specsByClass);
+	/**
+	 * @return the entries for {@link #lookupTable} of this injector's own singletons, with lazy ones taking precedence
+	 * over the proxies that stand in for them
+	 */
+	private Map<Class<?>, Object> ownLookupEntries() {
+		Map<Class<?>, Object> result = new HashMap<>(instances);
+		result.putAll(lazySingletons);
+		return result;
 	}
 
+	private Object existingInstance(Class<?> type) {
+		Object instance = instances.get(type);
+		return (instance == null) ? getInstance(type) : instance;
+	}
 
-	private void createProxies(Collection<UnambiguousSpec> plan) {
-		for (var spec: plan) {
-			// Proxies are for interfaces, and interfaces can't be instantiated;
-			// therefore, proxies are only needed for AliasSpec.
-			if (spec instanceof AliasSpec(var requestedType, var __)) {
-				LOGGER.debug("Creating proxy for {}", requestedType.getSimpleName());
-				var proxyInfo = ProxyFactory.generateFor(requestedType);
-				proxies.add(proxyInfo);
-				instances.put(requestedType, proxyInfo.proxyObject());
-			}
+	/**
+	 * @return whether {@link #getInstance} can supply an object for <code>type</code>
+	 */
+	private boolean provides(Class<?> type) {
+		return lookupTable.get(type) != null
+			|| (parent != null && parent.provides(type));
+	}
+
+	/**
+	 * @return every singleton that is an instance of <code>type</code>, in the order in which they were constructed,
+	 * followed by any {@link Lazy} singletons of that type, which are instantiated if they haven't been already;
+	 * empty if there are none.
+	 * These are followed by those of any {@link #addClasses added} classes, in the order they were added,
+	 * and for a {@link #createChild child} injector, preceded by those of its parent.
+	 */
+	public <T> List<T> getInstances(Class<T> type) {
+		if (attached) {
+			return parent.getInstances(type);
+		}
+		List<T> result = ownInstances(type);
+		for (var l: addedLayers) {
+			result = concat(result, l.ownInstances(type));
+		}
+		if (parent != null) {
+			result = concat(parent.getInstances(type), result);
 		}
+		return result;
 	}
 
-	private void resolveProxies() {
-		for (var proxyInfo: proxies) {
-			resolveProxy(proxyInfo);
+	private static <T> List<T> concat(List<T> first, List<T> second) {
+		if (first.isEmpty()) {
+			return second;
+		} else if (second.isEmpty()) {
+			return first;
+		} else {
+			List<T> result = new ArrayList<>(first.size() + second.size());
+			result.addAll(first);
+			result.addAll(second);
+			return unmodifiableList(result);
 		}
 	}
 
-	private <T> void resolveProxy(ProxyFactory.ProxyInfo<T> proxyInfo) {
-		Class<T> type = proxyInfo.interfaceType();
-		proxyInfo.setter().accept(type.cast(instances.get(type)));
+	@SuppressWarnings("unchecked")
+	private <T> List<T> ownInstances(Class<T> type) {
+		var result = instancesByType.get(type);
+		var lazy = lazySingletonsByType.get(type);
+		if (lazy != null) {
+			List<Object> all = (result == null) ? new ArrayList<>() : new ArrayList<>(result);
+			lazy.forEach(l -> all.add(l.get()));
+			return (List<T>) unmodifiableList(all);
+		} else if (result == null) {
+			return List.of();
+		} else {
+			// instancesByType only lists instances of the type it's keyed by
+			return (List<T>) unmodifiableList(result);
+		}
 	}
 
-	private static Map<Class<?>, InjectionSpec> specMap(Collection<Class<?>> classesToProcess) {
-		LOGGER.debug("Root set: {}", classesToProcess);
+	/**
+	 * @return what happened while this injector was being created
+	 */
+	public InjectionReport report() {
+		return report;
+	}
 
-		Set<Class<?>> checklist = new HashSet<>(classesToProcess);
-		Map<Class<?>, InjectionSpec> specsByClass = new LinkedHashMap<>();
-		for (var c: classesToProcess) {
-			computeSpec(c, checklist, specsByClass);
+	/**
+	 * Like {@link #close(Executor, Duration)}, closing the singletons one at a time on the calling thread.
+	 */
+	@Override
+	public void close() {
+		close(null, null);
+	}
+
+	/**
+	 * Closes every {@link AutoCloseable} singleton this injector instantiated, including any {@link Lazy} ones
+	 * that have been instantiated, after first closing those of the layers {@link #addClasses added} to it.
+	 * Each singleton is closed only once every singleton that depends on it has been closed,
+	 * so it can still use its dependencies while closing.
+	 * Singletons that don't depend on each other are closed concurrently.
+	 * <p>
+	 * Singletons that a child injector takes from its parent are left for the parent to close,
+	 * so children should be closed first. Closing an injector a second time does nothing.
+	 *
+	 * @param executor runs each singleton's <code>close</code> method; null to close them on the calling thread
+	 * @param timeout how long to wait for each singleton to close before going on to close its dependencies,
+	 *                leaving it to finish in the background; null to wait indefinitely
+	 * @throws IllegalStateException if any singleton failed to close or timed out, once all the others are closed,
+	 *                               with each failure {@linkplain Throwable#getSuppressed suppressed}
+	 */
+	public void close(Executor executor, Duration timeout) {
+		if (closed.getAndSet(true)) {
+			return;
 		}
-		if (LOGGER.isTraceEnabled()) {
-			LOGGER.trace("Specs: {}",
-				specsByClass.values().stream()
-					.map(Object::toString)
-					.collect(joining("\n\t", "\n\t", "")));
+		List<Throwable> failures = new ArrayList<>();
+		for (var layer: addedLayers.reversed()) {
+			layer.closed.set(true);
+			failures.addAll(layer.closeSingletons(executor, timeout));
+		}
+		failures.addAll(closeSingletons(executor, timeout));
+		if (!failures.isEmpty()) {
+			var e = new IllegalStateException("Unable to close " + failures.size() + " singletons");
+			failures.forEach(e::addSuppressed);
+			throw e;
 		}
-		return specsByClass;
 	}
 
-	private static Set<Class<?>> injectableSingletonsProvidedBy(ModuleLayer layer) {
-		Set<Class<?>> classesToProcess = new HashSet<>();
-		for (var m: layer.modules()) {
-			for (var p: m.getDescriptor().provides()) {
-				if (InjectableSingleton.class.getName().equals(p.service())) {
-					p.providers().forEach(name -> {
-						try {
-							classesToProcess.add(m.getClassLoader().loadClass(name));
-						} catch (ClassNotFoundException e) {
-							throw new IllegalStateException("Unexpected error scanning module layer", e);
-						}
-					});
-				}
-			}
-		}
-		return classesToProcess;
+	private List<Throwable> closeSingletons(Executor executor, Duration timeout) {
+		long startNanos = System.nanoTime();
+		var result = ParallelCloser.close(plan, this::constructedInstance, executor, timeout);
+		LOGGER.debug("Closed singletons in {} with {} failures", Duration.ofNanos(System.nanoTime() - startNanos), result.size());
+		return result;
 	}
 
 	/**
-	 * @param checklist will have <code>c</code> removed from it
-	 * @param specsByClass will be left in topological order
+	 * Unlike {@link #getInstance}, doesn't instantiate {@link Lazy} singletons,
+	 * or look for <code>type</code> in any other injector.
+	 *
+	 * @return null if there is none
 	 */
-	private static void computeSpec(Class<?> c, Set<Class<?>> checklist, Map<Class<?>, InjectionSpec> specsByClass) {
-		InjectionSpec existingResult = specsByClass.get(c);
-		if (existingResult != null) {
-			LOGGER.trace("Spec for {} already exists", c);
-			return;
+	private Object constructedInstance(Class<?> type) {
+		// Only types this injector planned are looked up, so the lookup table has its own singletons for them
+		Object result = lookupTable.get(type);
+		return (result instanceof LazySingleton lazy) ? lazy.instance : result;
+	}
+
+	private void doInjection(Collection<Class<?>> classesToProcess, ModuleLayer layer) {
+		var cachedPlan = readOrComputePlan(classesToProcess, layer);
+		var plan = timed("deferLazySingletons", () -> deferLazySingletons(cachedPlan.plan()));
+		timed("createProxies", () -> createProxies(cachedPlan.proxiedTypes().stream()
+			.filter(type -> !lazySingletons.containsKey(type))
+			.toList()));
+		if (options.executor() != null) {
+			timed("executeInParallel", () -> executeInParallel(plan));
+		} else if (options.generatedWiring()) {
+			timed("executeGeneratedWiring", () -> executeGeneratedWiring(plan));
+		} else {
+			timed("executeInstantiationPlan", () -> executeInstantiationPlan(plan));
+		}
+		timed("resolveProxies", this::resolveProxies);
+		lookupTable = InstanceTable.of(ownLookupEntries());
+		ready = true;
+		timed("reportInjectedObjects", () -> reportInjectedObjects(plan));
+		// The report covers the lazy singletons too, with no constructor time unless they've been instantiated
+		report = InjectionReport.of(phases, cachedPlan.plan(), List.copyOf(proxiesByType().keySet()), constructorTimes);
+		this.plan = cachedPlan.plan();
+		if (options.compact()) {
+			compact();
 		}
+	}
+
+	/**
+	 * Releases what was needed only to create the singletons, and copies the tables needed to look them up
+	 * into immutable ones that are no bigger than they need to be.
+	 * The {@link #lookupTable} serves in place of {@link #instances} and {@link #lazySingletons}.
+	 * <p>
+	 * What remains is what {@link #getInstance}, {@link #getInstances}, {@link #addClasses} and {@link #close} need.
+	 * The {@link #index} goes too, so a {@link #createChild child} reads the metadata of any class
+	 * that this injector didn't use from its class file instead.
+	 */
+	private void compact() {
+		proxies = List.of();
+		instances = Map.of();
+		instancesByType = copyOfLists(instancesByType);
+		lazySingletons = Map.of();
+		lazySingletonsByType = copyOfLists(lazySingletonsByType);
+		lazyProxies = Map.copyOf(lazyProxies);
+		index = InjectionIndex.empty();
+		// The report already has the constructor times, and any lazy singletons instantiated later can't change it
+		constructorTimes = new ConcurrentHashMap<>();
+		phases.clear();
+		phases.trimToSize();
+	}
 
-		if (checklist.remove(c)) {
-			Constructor<?> constructor = getSuitableConstructorIfAny(c);
-			if (constructor == null) {
-				LOGGER.debug("No suitable constructor: {}", c);
-				return;
+	private static <T> Map<Class<?>, List<T>> copyOfLists(Map<Class<?>, List<T>> map) {
+		Map<Class<?>, List<T>> result = new HashMap<>(map.size());
+		map.forEach((type, list) -> result.put(type, List.copyOf(list)));
+		return Map.copyOf(result);
+	}
+
+	private PlanCache.CachedPlan readOrComputePlan(Collection<Class<?>> classesToProcess, ModuleLayer layer) {
+		PlanCache planCache = null;
+		// The plan of a child or added layer depends on what its parent provides, which the cache doesn't check,
+		// and it would overwrite the parent's plan, which shares its options
+		if (options.planCache() != null && parent == null) {
+			planCache = new PlanCache(options.planCache(), layer, classesToProcess, options.proxiesOnlyForCycles());
+			var cached = timed("readPlanCache", planCache::read);
+			if (cached != null) {
+				return cached;
 			}
+		}
+		var graph = timed("specGraph", () -> specGraph(classesToProcess, index));
+		PlanCache.CachedPlan result;
+		if (options.proxiesOnlyForCycles()) {
+			var plan = timed("instantiationPlan", () -> TopologicalPlanner.instantiationPlan(graph, this::inherits));
+			result = new PlanCache.CachedPlan(List.copyOf(plan), TopologicalPlanner.proxiedTypes(plan, this::inherits));
+		} else {
+			var plan = timed("instantiationPlan", () -> instantiationPlan(graph, this::inherits));
+			result = new PlanCache.CachedPlan(List.copyOf(plan), proxiedTypes(plan));
+		}
+		if (planCache != null) {
+			var cache = planCache;
+			var plan = result;
+			timed("writePlanCache", () -> cache.write(plan.plan(), plan.proxiedTypes(), graph.specifiedTypes()));
+		}
+		return result;
+	}
 
-			LOGGER.trace("Recurse into parameters for constructor: {}", constructor);
-			for (var pt: constructor.getParameterTypes()) {
-				computeSpec(pt, checklist, specsByClass);
+	/**
+	 * @return whether <code>type</code>, which this injector has no spec for, can be taken from its parent
+	 */
+	private boolean inherits(Class<?> type) {
+		return parent != null && parent.provides(type);
+	}
+
+	private <T> T timed(String phase, Supplier<T> action) {
+		long startNanos = System.nanoTime();
+		T result = action.get();
+		Duration time = Duration.ofNanos(System.nanoTime() - startNanos);
+		LOGGER.debug("Phase {} took {}", phase, time);
+		phases.add(new InjectionReport.Phase(phase, time));
+		return result;
+	}
+
+	private void timed(String phase, Runnable action) {
+		timed(phase, () -> {
+			action.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Sets aside the {@link Lazy} singletons in <code>plan</code> that can stay lazy,
+	 * and creates proxies for those that other singletons depend on.
+	 * <p>
+	 * A lazy singleton can't stay lazy if an eager one needs it right away: as a <code>@Now</code> parameter,
+	 * or as a parameter that isn't an interface and so can't be proxied.
+	 * Such a singleton becomes eager, and in turn may force others to become eager.
+	 *
+	 * @return the rest of the plan, to be executed now
+	 */
+	private List<UnambiguousSpec> deferLazySingletons(List<UnambiguousSpec> plan) {
+		Map<Class<?>, ConstructorSpec> implementations = new HashMap<>();
+		Set<ConstructorSpec> lazy = newSetFromMap(new IdentityHashMap<>());
+		Deque<ConstructorSpec> eager = new ArrayDeque<>();
+		for (var spec: plan) {
+			switch (spec) {
+				case ConstructorSpec c -> {
+					implementations.put(c.requestedType(), c);
+					if (c.requestedType().isAnnotationPresent(Lazy.class)) {
+						lazy.add(c);
+					} else {
+						eager.add(c);
+					}
+				}
+				case AliasSpec(var requestedType, var subtype) -> implementations.put(requestedType, implementations.get(subtype));
 			}
+		}
+		if (lazy.isEmpty()) {
+			return plan;
+		}
+		while (!eager.isEmpty()) {
+			for (var p: eager.pop().parameters()) {
+				ConstructorSpec dependency = implementations.get(p.type());
+				if ((p.now() || !p.type().isInterface()) && dependency != null && lazy.remove(dependency)) {
+					LOGGER.debug("Singleton {} must be instantiated eagerly", dependency.requestedType().getSimpleName());
+					eager.push(dependency);
+				}
+			}
+		}
 
-			List<Method> reportInjectedMethods = getReportInjectedMethods(c);
-			for (Method m: reportInjectedMethods) {
-				LOGGER.trace("Recurse into parameters for method: {}", m);
-				for (var pt: m.getParameterTypes()) {
-					computeSpec(pt, checklist, specsByClass);
+		Map<ConstructorSpec, LazySingleton> lazySingletonsBySpec = new IdentityHashMap<>();
+		List<UnambiguousSpec> result = new ArrayList<>();
+		for (var spec: plan) {
+			ConstructorSpec implementation = implementations.get(spec.requestedType());
+			if (lazy.contains(implementation)) {
+				var lazySingleton = lazySingletonsBySpec.computeIfAbsent(implementation, LazySingleton::new);
+				lazySingletons.put(spec.requestedType(), lazySingleton);
+				if (spec == implementation) {
+					addToLazyTypeIndex(spec.requestedType(), lazySingleton);
+					addToLazyTypeIndex(Object.class, lazySingleton);
+					for (var supertype: SingletonMetadata.of(spec.requestedType(), index).supertypes()) {
+						addToLazyTypeIndex(supertype, lazySingleton);
+					}
 				}
+			} else {
+				result.add(spec);
 			}
+		}
+		LOGGER.debug("Deferring {} lazy singletons", lazySingletonsBySpec.size());
 
-			registerSpec(new ConstructorSpec(constructor, reportInjectedMethods), specsByClass);
-			aliasSuperinterfaces(c, c, specsByClass);
-			for (Class<?> superclass = c.getSuperclass(); superclass != Object.class; superclass = superclass.getSuperclass()) {
-				registerSpec(new AliasSpec(superclass, c), specsByClass);
-				aliasSuperinterfaces(superclass, c, specsByClass);
+		for (var spec: plan) {
+			if (spec instanceof ConstructorSpec c) {
+				for (var p: c.parameters()) {
+					if (!p.now() && lazySingletons.containsKey(p.type()) && !lazyProxies.containsKey(p.type())) {
+						createLazyProxy(p.type());
+					}
+				}
 			}
 		}
+		return result;
 	}
 
-	private static Constructor<?> getSuitableConstructorIfAny(Class<?> type) {
-		Constructor<?>[] constructors = type.getDeclaredConstructors();
-		if (constructors.length == 1) {
-			return constructors[0];
-		} else {
-			var injectConstructors = Stream.of(constructors)
-				.filter(c -> c.isAnnotationPresent(Inject.class))
-				.toList();
-			if (injectConstructors.size() == 1) {
-				return injectConstructors.getFirst();
-			} else {
-				return null;
+	private void addToLazyTypeIndex(Class<?> type, LazySingleton lazySingleton) {
+		lazySingletonsByType.computeIfAbsent(type, __ -> new ArrayList<>()).add(lazySingleton);
+	}
+
+	private <T> void createLazyProxy(Class<T> type) {
+		LOGGER.debug("Creating lazy proxy for {}", type.getSimpleName());
+		LazySingleton lazySingleton = lazySingletons.get(type);
+		T proxy = proxyFactory.generateLazy(type, () -> type.cast(lazySingleton.get()));
+		lazyProxies.put(type, proxy);
+		instances.put(type, proxy);
+	}
+
+	static List<Class<?>> proxiedTypes(Collection<UnambiguousSpec> plan) {
+		List<Class<?>> result = new ArrayList<>();
+		for (var spec: plan) {
+			// Proxies are for interfaces, and interfaces can't be instantiated;
+			// therefore, proxies are only needed for AliasSpec.
+			if (spec instanceof AliasSpec(var requestedType, var __)) {
+				result.add(requestedType);
 			}
 		}
+		return result;
 	}
 
-	private static void aliasSuperinterfaces(Class<?> classToScan, Class<?> classToAlias, Map<Class<?>, InjectionSpec> specsByClass) {
-		for (var i: classToScan.getInterfaces()) {
-			registerSpec(new AliasSpec(i, classToAlias), specsByClass);
-			aliasSuperinterfaces(i, classToAlias, specsByClass);
+	void createProxies(List<Class<?>> proxiedTypes) {
+		for (var type: proxiedTypes) {
+			LOGGER.debug("Creating proxy for {}", type.getSimpleName());
+			var proxyInfo = proxyFactory.generate(type);
+			proxies.add(proxyInfo);
+			instances.put(type, proxyInfo.proxyObject());
 		}
 	}
 
-	private static void registerSpec(InjectionSpec spec, Map<Class<?>, InjectionSpec> specsByClass) {
-		Class<?> requestedType = spec.requestedType();
-		var existing = specsByClass.put(requestedType, spec);
-		if (existing != null && !existing.equals(spec)) {
-			AmbiguousSpec ambiguousSpec = new AmbiguousSpec(requestedType, spec, existing);
-			LOGGER.trace("Ambiguity discovered: {}", ambiguousSpec);
-			specsByClass.put(requestedType, ambiguousSpec);
-		} else {
-			LOGGER.trace("Register spec: {}", spec);
+	void resolveProxies() {
+		List<Object> targets = new ArrayList<>(proxies.size());
+		for (var proxyInfo: proxies) {
+			targets.add(instances.get(proxyInfo.interfaceType()));
+		}
+		ProxyFactory.setAll(proxies, targets);
+	}
+
+	static SpecGraph specGraph(Collection<Class<?>> classesToProcess, InjectionIndex index) {
+		LOGGER.debug("Root set: {}", classesToProcess);
+
+		Set<Class<?>> checklist = new HashSet<>(classesToProcess);
+		SpecGraph.Builder builder = new SpecGraph.Builder();
+		for (var c: classesToProcess) {
+			computeSpec(c, checklist, builder, index);
+		}
+		SpecGraph result = builder.build();
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Specs: {}",
+				result.specsByClass().values().stream()
+					.map(Object::toString)
+					.collect(joining("\n\t", "\n\t", "")));
 		}
+		return result;
 	}
 
-	private static List<Method> getReportInjectedMethods(Class<?> givenClass) {
-		List<Method> result = new ArrayList<>();
-		for (var c = givenClass; c != Object.class; c = c.getSuperclass()) {
-			for (var m: c.getDeclaredMethods()) {
-				if (m.isAnnotationPresent(Injected.class)) {
-					checkValidInjectedMethod(m);
-					result.add(m);
+	/**
+	 * Computes the spec for <code>root</code> and, depth-first, for the dependencies of its constructor
+	 * and {@link Injected} methods.
+	 * Keeps its own stack rather than recursing, so it handles dependency chains of any length.
+	 *
+	 * @param checklist will have each class removed from it as its spec is computed
+	 * @param builder will have its specs registered in topological order
+	 */
+	private static void computeSpec(Class<?> root, Set<Class<?>> checklist, SpecGraph.Builder builder, InjectionIndex index) {
+		Deque<PendingSpec> stack = new ArrayDeque<>();
+		var pendingRoot = startSpec(root, builder.id(root), checklist, builder, index);
+		if (pendingRoot != null) {
+			stack.push(pendingRoot);
+		}
+		while (!stack.isEmpty()) {
+			var pending = stack.peek();
+			if (pending.next < pending.dependencies.size()) {
+				int i = pending.next++;
+				Class<?> dependency = pending.dependencies.get(i);
+				int id = builder.id(dependency);
+				if (i < pending.parameterIds.length) {
+					pending.parameterIds[i] = id;
+				}
+				var pendingDependency = startSpec(dependency, id, checklist, builder, index);
+				if (pendingDependency != null) {
+					stack.push(pendingDependency);
+				}
+			} else {
+				stack.pop();
+				builder.register(pending.id, pending.metadata.constructorSpec(), pending.parameterIds);
+				int[] subtypeEdge = { pending.id };
+				for (var supertype: pending.metadata.supertypes()) {
+					builder.register(builder.id(supertype), new AliasSpec(supertype, pending.metadata.constructorSpec().requestedType()), subtypeEdge);
 				}
 			}
 		}
-		return result;
 	}
 
-	private static void checkValidInjectedMethod(Method method) {
-		var pts = method.getParameterTypes();
-		if (pts.length != 1) {
-			throw new IllegalStateException("Expected @" + Injected.class.getSimpleName() + " method to have one parameter: " + method);
+	/**
+	 * @return the work remaining to compute the spec for <code>c</code>,
+	 * or null if there is none because it already has a spec, is already in progress, or has no suitable constructor
+	 */
+	private static PendingSpec startSpec(Class<?> c, int id, Set<Class<?>> checklist, SpecGraph.Builder builder, InjectionIndex index) {
+		if (builder.spec(id) != null) {
+			LOGGER.trace("Spec for {} already exists", c);
+			return null;
+		}
+		if (!checklist.remove(c)) {
+			return null;
+		}
+		SingletonMetadata metadata = SingletonMetadata.of(c, index);
+		ConstructorSpec constructorSpec = metadata.constructorSpec();
+		if (constructorSpec == null) {
+			LOGGER.debug("No suitable constructor: {}", c);
+			return null;
+		}
+
+		LOGGER.trace("Recurse into parameters for constructor: {}", constructorSpec);
+		var parameters = constructorSpec.parameters();
+		List<Class<?>> dependencies = new ArrayList<>(parameters.size());
+		parameters.forEach(p -> dependencies.add(p.type()));
+		for (Method m: constructorSpec.reportInjectedMethods()) {
+			LOGGER.trace("Recurse into parameters for method: {}", m);
+			dependencies.addAll(asList(m.getParameterTypes()));
 		}
-		var pt = pts[0];
-		if (!Collection.class.equals(pt)) {
-			// TODO: It should also a collection of the right type of elements
-			throw new IllegalStateException("Expected @" + Injected.class.getSimpleName() + " method parameter to be a Collection: " + method);
+		return new PendingSpec(id, metadata, dependencies, new int[parameters.size()]);
+	}
+
+	/**
+	 * A class whose spec is waiting for those of its dependencies.
+	 *
+	 * @param dependencies the constructor's parameter types, followed by those of the {@link Injected} methods
+	 * @param parameterIds filled in as the parameters are reached
+	 */
+	private static final class PendingSpec {
+		final int id;
+		final SingletonMetadata metadata;
+		final List<Class<?>> dependencies;
+		final int[] parameterIds;
+
+		/**
+		 * The index in {@link #dependencies} of the next one to compute.
+		 */
+		int next = 0;
+
+		PendingSpec(int id, SingletonMetadata metadata, List<Class<?>> dependencies, int[] parameterIds) {
+			this.id = id;
+			this.metadata = metadata;
+			this.dependencies = dependencies;
+			this.parameterIds = parameterIds;
 		}
 	}
 
 	/**
+	 * Plans depth-first, following <code>@Now</code> parameters and alias subtypes.
+	 *
 	 * @return the {@link UnambiguousSpec} objects listed in execution order.
 	 */
-	private static Collection<UnambiguousSpec> instantiationPlan(Map<Class<?>, InjectionSpec> specsByClass) {
-		// TODO: Cycle detection and reporting. Use SCCs
-		LOGGER.trace("Constructing instantiation plan");
-		Set<Class<?>> allParameterTypes = new HashSet<>();
-		specsByClass.values().forEach(spec -> {
-			if (spec instanceof ConstructorSpec c) {
-				allParameterTypes.addAll(asList(c.constructor().getParameterTypes()));
-			}
-		});
-		List<UnambiguousSpec> plan = new ArrayList<>();
-		Set<InjectionSpec> alreadyPlanned = newSetFromMap(new IdentityHashMap<>());
-		specsByClass.keySet().forEach((c) ->
-			updateInstantiationPlan(plan, c, specsByClass, allParameterTypes, alreadyPlanned)
-		);
-		LOGGER.trace("Instantiation plan: {}", plan);
-		return plan;
+	static Collection<UnambiguousSpec> instantiationPlan(SpecGraph graph) {
+		return instantiationPlan(graph, __ -> false);
 	}
 
-	private static void updateInstantiationPlan(
-		List<UnambiguousSpec> plan,
-		Class<?> requestedClass,
-		Map<Class<?>, InjectionSpec> specsByClass,
-		Set<Class<?>> allParameterTypes,
-		Set<InjectionSpec> alreadyPlanned
-	) {
-		InjectionSpec spec = specsByClass.get(requestedClass);
-		if (alreadyPlanned.add(spec)) {
-			switch (spec) {
-				case null ->
-					throw new IllegalStateException("Cannot instantiate " + requestedClass);
-				case ConstructorSpec c -> {
-					if (c.constructor().getParameterCount() != 0) {
-						for (var p: c.constructor().getParameters()) {
-							if (p.isAnnotationPresent(Now.class)) {
-								LOGGER.trace("Recursing into @Now parameter {} of {}", p.getName(), c);
-								updateInstantiationPlan(plan, p.getType(), specsByClass, allParameterTypes, alreadyPlanned);
-							}
-						}
+	/**
+	 * Like {@link #instantiationPlan(SpecGraph)}, for a {@link #createChild child} injector.
+	 *
+	 * @param inherited which types that have no spec are nonetheless available from the parent
+	 */
+	static Collection<UnambiguousSpec> instantiationPlan(SpecGraph graph, Predicate<Class<?>> inherited) {
+		LOGGER.trace("Constructing instantiation plan");
+		ComponentFinder.checkForNowCycles(graph);
+		Class<?>[] types = graph.types();
+		InjectionSpec[] specs = graph.specs();
+		int[] edgeStart = graph.edgeStart();
+		int[] edgeTargets = graph.edgeTargets();
+		boolean[] edgeNow = graph.edgeNow();
+
+		List<UnambiguousSpec> plan = new ArrayList<>(graph.specOrder().length);
+		boolean[] alreadyPlanned = new boolean[graph.numTypes()];
+
+		// Each type is pushed at most once, so the stack can't be deeper than this.
+		// For each type on the stack, we keep the next of its edges to consider.
+		int[] stackIds = new int[graph.numTypes()];
+		int[] stackNextEdges = new int[graph.numTypes()];
+		for (int root: graph.specOrder()) {
+			if (alreadyPlanned[root]) {
+				continue;
+			}
+			alreadyPlanned[root] = true;
+			stackIds[0] = root;
+			stackNextEdges[0] = edgeStart[root];
+			int depth = 1;
+			while (depth > 0) {
+				int id = stackIds[depth - 1];
+				boolean isAlias = specs[id] instanceof AliasSpec;
+				int edge = stackNextEdges[depth - 1];
+				int successor = -1;
+				while (edge < edgeStart[id + 1]) {
+					int target = edgeTargets[edge];
+					boolean follow = (isAlias || edgeNow[edge]) && !alreadyPlanned[target];
+					edge++;
+					if (follow) {
+						successor = target;
+						break;
 					}
-					LOGGER.trace("Plan {}", c);
-					plan.add(c);
 				}
-				case AliasSpec a -> {
-					LOGGER.trace("Recursing into subtype for {}", a);
-					updateInstantiationPlan(plan, a.subtype(), specsByClass, allParameterTypes, alreadyPlanned);
-					if (allParameterTypes.contains(a.requestedType())) {
-						LOGGER.trace("Plan {}", a);
-					} else {
-						// Could be an opportunity for optimization here.
-						// The _only_ reason we need these unused aliases is in case
-						// somebody asks for one directly from the injector; they are
-						// not needed otherwise.
-						// If we change the injector setup so the user must specify
-						// which types they'll pull directly, we could skip these.
-						LOGGER.trace("Plan unused {}", a);
+				stackNextEdges[depth - 1] = edge;
+				if (successor >= 0) {
+					if (specs[successor] == null) {
+						if (inherited.test(types[successor])) {
+							alreadyPlanned[successor] = true;
+							continue;
+						}
+						throw new IllegalStateException("Cannot instantiate " + types[successor]);
+					}
+					LOGGER.trace("Recursing from {} into {}", types[id].getSimpleName(), types[successor].getSimpleName());
+					alreadyPlanned[successor] = true;
+					stackIds[depth] = successor;
+					stackNextEdges[depth] = edgeStart[successor];
+					depth++;
+				} else {
+					// Everything this depends on right away is planned, so this can be too.
+					// Note that aliases are planned even if nothing uses them as parameters.
+					// The _only_ reason we need these unused aliases is in case
+					// somebody asks for one directly from the injector.
+					// If we change the injector setup so the user must specify
+					// which types they'll pull directly, we could skip these.
+					depth--;
+					switch (specs[id]) {
+						case UnambiguousSpec u -> {
+							LOGGER.trace("Plan {}", u);
+							plan.add(u);
+						}
+						case AmbiguousSpec a -> LOGGER.trace("Skipping {}", a);
 					}
-					plan.add(a);
 				}
-				case AmbiguousSpec a ->
-					LOGGER.trace("Skipping {}", a);
 			}
 		}
+		LOGGER.trace("Instantiation plan: {}", plan);
+		return plan;
 	}
 
 	/**
@@ -297,61 +863,194 @@ public class Injector {
 	 * to the greatest extent possible to catch cases where people call methods
 	 * without using the @Now annotation.
 	 */
-	private void executeInstantiationPlan(Collection<UnambiguousSpec> plan) {
+	void executeInstantiationPlan(Collection<UnambiguousSpec> plan) {
 		plan.forEach(spec -> {
 			switch (spec) {
 				case ConstructorSpec c -> {
 					LOGGER.debug("Instantiating {}", c.requestedType().getSimpleName());
-					instances.put(c.requestedType(), instantiate(c.constructor()));
+					recordInstance(c, instantiate(c));
 				}
 				case AliasSpec(var requestedType, var subtype) -> {
 					LOGGER.debug("Aliasing {} = {}", requestedType.getSimpleName(), subtype.getSimpleName());
-					instances.put(requestedType, getInstance(subtype));
+					instances.put(requestedType, existingInstance(subtype));
 				}
 			}
 		});
 	}
 
-	private Object instantiate(Constructor<?> constructor) {
-		Object[] args = Stream.of(constructor.getParameterTypes())
-			.map(this::getInstance)
-			.toArray();
+	/**
+	 * Has the same effect as {@link #executeInstantiationPlan}, but calls the constructors
+	 * from a class generated by {@link WiringGenerator}.
+	 */
+	private void executeGeneratedWiring(Collection<UnambiguousSpec> plan) {
+		var presetValues = presetValues(plan);
+		List<Class<?>> presetTypes = List.copyOf(presetValues.keySet());
+		var wiring = WiringGenerator.generateFor(plan, presetTypes, classLoader);
+		Object[] values = new Object[wiring.numValues()];
+		for (int i = 0; i < presetTypes.size(); i++) {
+			values[i] = presetValues.get(presetTypes.get(i));
+		}
+		LOGGER.debug("Executing generated wiring");
 		try {
-			return constructor.newInstance(args);
-		} catch (InvocationTargetException | InstantiationException | IllegalAccessException e) {
-			throw new IllegalStateException("Unable to call constructor: " + constructor, e);
+			wiring.wire().invokeExact(values);
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			Class<?> failedType = WiringGenerator.failedType(plan, values, presetTypes.size());
+			if (failedType == null) {
+				throw new IllegalStateException("Unable to instantiate singletons", e);
+			}
+			throw new IllegalStateException("Unable to call constructor of " + failedType.getName(), e);
 		}
+		recordInstances(plan, asList(values).subList(presetTypes.size(), values.length));
 	}
 
-	private void reportInjectedObjects(Map<Class<?>, InjectionSpec> specsByClass) {
-		Set<Object> distinctInstances = newSetFromMap(new IdentityHashMap<>());
-		distinctInstances.addAll(instances.values());
+	/**
+	 * Has the same effect as {@link #executeInstantiationPlan}, but calls independent constructors
+	 * concurrently using {@link ParallelPlanExecutor}.
+	 */
+	private void executeInParallel(Collection<UnambiguousSpec> plan) {
+		recordInstances(plan, ParallelPlanExecutor.execute(plan, presetValues(plan), options.executor(), constructorTimes));
+	}
 
-		// There must be a more efficient way to do this. This way is quadratic.
-		for (Object obj: distinctInstances) {
-			var spec = specsByClass.get(obj.getClass());
-			if (spec instanceof ConstructorSpec c) {
-				for (Method m: c.reportInjectedMethods()) {
-					Type requiredType = ((ParameterizedType)m.getGenericParameterTypes()[0]).getActualTypeArguments()[0];
-					Class<?> requiredClass = rawClass(requiredType);
-					var relevantObjects = distinctInstances.stream()
-						.filter(requiredClass::isInstance)
-						.toList();
-					try {
-						m.invoke(obj, relevantObjects);
-					} catch (IllegalAccessException | InvocationTargetException e) {
-						throw new IllegalStateException("Can't invoke " + Injected.class.getSimpleName() + " method", e);
+	/**
+	 * @return the proxies for both cycles and lazy singletons
+	 */
+	private Map<Class<?>, Object> proxiesByType() {
+		Map<Class<?>, Object> result = new LinkedHashMap<>();
+		proxies.forEach(p -> result.put(p.interfaceType(), p.proxyObject()));
+		result.putAll(lazyProxies);
+		return result;
+	}
+
+	/**
+	 * @return the objects to pass for parameters that <code>plan</code> doesn't instantiate:
+	 * proxies, and for a child injector, the objects it takes from its parent
+	 */
+	private Map<Class<?>, Object> presetValues(Collection<UnambiguousSpec> plan) {
+		Map<Class<?>, Object> result = proxiesByType();
+		if (parent != null) {
+			Set<Class<?>> planned = new HashSet<>();
+			plan.forEach(spec -> planned.add(spec.requestedType()));
+			for (var spec: plan) {
+				if (spec instanceof ConstructorSpec c) {
+					for (var p: c.parameters()) {
+						if (!planned.contains(p.type()) && !result.containsKey(p.type())) {
+							result.put(p.type(), parent.getInstance(p.type()));
+						}
 					}
 				}
 			}
 		}
+		return result;
 	}
 
-	private static Class<?> rawClass(Type sourceType) {
-		if (sourceType instanceof ParameterizedType pt) {
-			return (Class<?>)pt.getRawType();
-		} else {
-			return (Class<?>)sourceType;
+	/**
+	 * @param constructedObjects the results of the {@link ConstructorSpec}s in <code>plan</code>, in the same order
+	 */
+	private void recordInstances(Collection<UnambiguousSpec> plan, List<Object> constructedObjects) {
+		var iter = constructedObjects.iterator();
+		for (var spec: plan) {
+			switch (spec) {
+				case ConstructorSpec c -> recordInstance(c, iter.next());
+				case AliasSpec(var requestedType, var subtype) -> instances.put(requestedType, existingInstance(subtype));
+			}
+		}
+	}
+
+	private void recordInstance(ConstructorSpec spec, Object instance) {
+		Class<?> type = spec.requestedType();
+		instances.put(type, instance);
+		addToTypeIndex(type, instance);
+		addToTypeIndex(Object.class, instance);
+		for (var supertype: SingletonMetadata.of(type, index).supertypes()) {
+			addToTypeIndex(supertype, instance);
+		}
+	}
+
+	private void addToTypeIndex(Class<?> type, Object instance) {
+		instancesByType.computeIfAbsent(type, __ -> new ArrayList<>()).add(instance);
+	}
+
+	private Object instantiate(ConstructorSpec spec) {
+		Object[] args = spec.parameters().stream()
+			.map(p -> existingInstance(p.type()))
+			.toArray();
+		return newInstance(spec, args, constructorTimes);
+	}
+
+	/**
+	 * @param constructorTimes receives the time taken by the constructor
+	 */
+	static Object newInstance(ConstructorSpec spec, Object[] args, Map<Class<?>, Duration> constructorTimes) {
+		var invokers = Invokers.of(spec);
+		long startNanos = System.nanoTime();
+		Object result = invokers.newInstance(args);
+		constructorTimes.put(spec.requestedType(), Duration.ofNanos(System.nanoTime() - startNanos));
+		return result;
+	}
+
+	void reportInjectedObjects(Collection<UnambiguousSpec> plan) {
+		for (var spec: plan) {
+			if (spec instanceof ConstructorSpec c && !c.reportInjectedMethods().isEmpty()) {
+				reportInjectedObjects(c, instances.get(c.requestedType()));
+			}
+		}
+	}
+
+	private void reportInjectedObjects(ConstructorSpec spec, Object obj) {
+		for (var m: Invokers.of(spec).injectedMethods()) {
+			m.invoke(obj, m.argument(getInstances(m.elementType()), proxyFactory));
+			injectedMethodCalls.add(new InjectedMethodCall(obj, m));
+		}
+	}
+
+	/**
+	 * Instantiates a {@link Lazy} singleton exactly once, on first use.
+	 */
+	private final class LazySingleton {
+		final ConstructorSpec spec;
+		private volatile Object instance;
+		private boolean inProgress = false;
+
+		LazySingleton(ConstructorSpec spec) {
+			this.spec = spec;
+		}
+
+		Object get() {
+			Object result = instance;
+			if (result == null) {
+				synchronized (this) {
+					result = instance;
+					if (result == null) {
+						result = instantiate();
+						instance = result;
+					}
+				}
+			}
+			return result;
+		}
+
+		private Object instantiate() {
+			if (!ready) {
+				throw new IllegalStateException("Cannot use lazy singleton " + spec.requestedType().getName()
+					+ " before the injector is ready. Use the @Now annotation on your constructor's parameter to indicate that you need to call a method on it");
+			}
+			if (inProgress) {
+				throw new IllegalStateException("Cycle of @Now dependencies involving " + spec.requestedType().getName());
+			}
+			inProgress = true;
+			try {
+				LOGGER.debug("Instantiating lazy {}", spec.requestedType().getSimpleName());
+				Object[] args = spec.parameters().stream()
+					.map(p -> (!p.now() && lazyProxies.containsKey(p.type())) ? lazyProxies.get(p.type()) : getInstance(p.type()))
+					.toArray();
+				Object result = newInstance(spec, args, constructorTimes);
+				reportInjectedObjects(spec, result);
+				return result;
+			} finally {
+				inProgress = false;
+			}
 		}
 	}
 
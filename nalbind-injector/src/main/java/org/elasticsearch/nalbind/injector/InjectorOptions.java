@@ -0,0 +1,220 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Settings that affect how an {@link Injector} goes about its work.
+ * <p>
+ * {@snippet :
+ * Injector injector = Injector.withClasses(classes, InjectorOptions.defaults()
+ * 	.generatedWiring(true));
+ * }
+ */
+public final class InjectorOptions {
+	private boolean generatedWiring = false;
+	private Executor executor = null;
+	private Path planCache = null;
+	private boolean proxiesOnlyForCycles = false;
+	private ProxyStrategy proxyStrategy = ProxyStrategy.INDY;
+	private boolean scanParentLayers = false;
+	private ClassLoader scanClassPath = null;
+	private boolean compact = false;
+	private Path exportGeneratedClasses = null;
+	private Path generatedClassJar = null;
+
+	private InjectorOptions() { }
+
+	public static InjectorOptions defaults() {
+		return new InjectorOptions();
+	}
+
+	/**
+	 * Instantiate the singletons by generating a class that calls their constructors directly,
+	 * rather than calling them reflectively.
+	 * This costs one class definition, but avoids reflective dispatch,
+	 * argument arrays and map lookups for each singleton.
+	 */
+	public InjectorOptions generatedWiring(boolean value) {
+		this.generatedWiring = value;
+		return this;
+	}
+
+	/**
+	 * Call independent constructors concurrently on the given executor.
+	 * The resulting objects are the same as they would be if constructed sequentially.
+	 * If any constructor throws, no further constructors are started,
+	 * and those already running are allowed to finish before the failure is thrown,
+	 * with any further failures attached to it as suppressed exceptions.
+	 * <p>
+	 * Takes precedence over {@link #generatedWiring}.
+	 *
+	 * @param executor null to call constructors sequentially on the calling thread
+	 */
+	public InjectorOptions parallelInstantiation(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * Like {@link #parallelInstantiation(Executor)}, starting a new virtual thread for each constructor.
+	 * This suits constructors that spend their time blocked on I/O.
+	 */
+	public InjectorOptions parallelInstantiationOnVirtualThreads() {
+		ThreadFactory threadFactory = Thread.ofVirtual().name("nalbind-instantiation-", 0).factory();
+		return parallelInstantiation(task -> threadFactory.newThread(task).start());
+	}
+
+	/**
+	 * Store the instantiation plan in the given file, and reuse it as long as the root set, module layer
+	 * and class files it was computed from are unchanged. Otherwise, the plan is computed as usual
+	 * and the file is overwritten.
+	 * <p>
+	 * Only a top-level injector uses the cache. {@link Injector#createChild Child} injectors
+	 * and {@link Injector#addClasses added} classes are planned every time,
+	 * because their plans depend on what the parent provides.
+	 *
+	 * @param file null to compute the plan every time
+	 */
+	public InjectorOptions planCache(Path file) {
+		this.planCache = file;
+		return this;
+	}
+
+	/**
+	 * Plan instantiation so that each object is constructed after all its dependencies,
+	 * <code>@Now</code> or not, except where they form a cycle.
+	 * Proxies are then needed only for dependencies that break a cycle,
+	 * and every other object receives its dependencies directly rather than through a proxy.
+	 * <p>
+	 * A cycle can only be broken at an interface type.
+	 */
+	public InjectorOptions proxiesOnlyForCycles(boolean value) {
+		this.proxiesOnlyForCycles = value;
+		return this;
+	}
+
+	/**
+	 * How proxies forward calls to the objects they stand in for.
+	 * The default, {@link ProxyStrategy#INDY}, makes calls through proxies as fast as direct calls,
+	 * which matters most for long-running applications.
+	 * The field strategies make proxies cheaper to create, which matters most when there are many of them
+	 * and startup time dominates.
+	 */
+	public InjectorOptions proxyStrategy(ProxyStrategy value) {
+		this.proxyStrategy = value;
+		return this;
+	}
+
+	/**
+	 * When scanning a module layer for {@link org.elasticsearch.nalbind.api.InjectableSingleton} providers,
+	 * scan the modules of all its ancestor layers too, including the boot layer.
+	 */
+	public InjectorOptions scanParentLayers(boolean value) {
+		this.scanParentLayers = value;
+		return this;
+	}
+
+	/**
+	 * When scanning a module layer for {@link org.elasticsearch.nalbind.api.InjectableSingleton} providers,
+	 * also include those listed in the <code>META-INF/services</code> files that the given class loader can see,
+	 * as for classes on the class path, which have no module descriptor to declare them.
+	 *
+	 * @param loader null to scan only modules
+	 */
+	public InjectorOptions scanClassPath(ClassLoader loader) {
+		this.scanClassPath = loader;
+		return this;
+	}
+
+	/**
+	 * Once the singletons are created, release everything the injector needed only to create them,
+	 * such as the means to resolve proxies, and keep its singletons in immutable tables sized to fit.
+	 * This suits long-lived injectors in applications that are short of heap.
+	 * The injector behaves the same, except that {@link Injector#createChild child} injectors may start more slowly.
+	 */
+	public InjectorOptions compact(boolean value) {
+		this.compact = value;
+		return this;
+	}
+
+	/**
+	 * Write each named class the injector generates to the given directory as a class file,
+	 * and list their names in a file there called <code>classlist</code>.
+	 * Run once like this, with <code>-XX:ArchiveClassesAtExit</code>, to train a class data sharing archive,
+	 * then package the directory as a jar for {@link #generatedClassJar}:
+	 * {@snippet lang=shell :
+	 * jar --create --file generated.jar -C generated-classes .
+	 * }
+	 * The named classes are the {@link #generatedWiring generated wiring} and the proxies
+	 * of the field {@link #proxyStrategy strategies}.
+	 * Other proxies are hidden classes, which the JVM can't archive.
+	 * <p>
+	 * The directory should be empty to start with.
+	 * Each injector's wiring class is named after its plan, so child injectors and added layers
+	 * with the same option export theirs alongside the parent's.
+	 * Classes exported again, such as by a later run, replace the class files already there,
+	 * and are listed only once.
+	 *
+	 * @param directory null to write nothing
+	 */
+	public InjectorOptions exportGeneratedClasses(Path directory) {
+		this.exportGeneratedClasses = directory;
+		return this;
+	}
+
+	/**
+	 * Define the generated classes that are in the given jar, from an earlier {@link #exportGeneratedClasses export},
+	 * as coming from the jar, so that the JVM can use the copies in its class data sharing archive
+	 * (<code>-XX:SharedArchiveFile</code>) instead of parsing and verifying them again.
+	 * A class is taken from the jar only if it is identical to the one generated,
+	 * so a jar from different singletons is harmless, if useless.
+	 *
+	 * @param jar null to define the generated classes as usual
+	 */
+	public InjectorOptions generatedClassJar(Path jar) {
+		this.generatedClassJar = jar;
+		return this;
+	}
+
+	boolean generatedWiring() {
+		return generatedWiring;
+	}
+
+	Executor executor() {
+		return executor;
+	}
+
+	Path planCache() {
+		return planCache;
+	}
+
+	boolean proxiesOnlyForCycles() {
+		return proxiesOnlyForCycles;
+	}
+
+	ProxyStrategy proxyStrategy() {
+		return proxyStrategy;
+	}
+
+	boolean scanParentLayers() {
+		return scanParentLayers;
+	}
+
+	ClassLoader scanClassPath() {
+		return scanClassPath;
+	}
+
+	boolean compact() {
+		return compact;
+	}
+
+	Path exportGeneratedClasses() {
+		return exportGeneratedClasses;
+	}
+
+	Path generatedClassJar() {
+		return generatedClassJar;
+	}
+}
@@ -0,0 +1,113 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * An immutable map from types to the objects an {@link Injector} has for them,
+ * built once injection finishes, so that {@link Injector#getInstance} can be called from any number of threads
+ * without locking or allocating.
+ * <p>
+ * Keys are compared by identity, and the table is open-addressed, with keys and values interleaved in one array,
+ * so a lookup is an identity hash, usually one or two array reads, and no calls to {@link Object#equals}.
+ * <p>
+ * The table is safely published by its final field alone, but the injector also keeps it in a volatile field,
+ * because {@link Injector#addClasses} replaces it.
+ */
+final class InstanceTable {
+	static final InstanceTable EMPTY = new InstanceTable(new Object[2], 0);
+
+	/**
+	 * Each key is followed by its value; empty slots are null.
+	 * The length is a power of two, at least twice the number of keys, so probing always finds an empty slot.
+	 */
+	private final Object[] slots;
+	private final int size;
+
+	private InstanceTable(Object[] slots, int size) {
+		this.slots = slots;
+		this.size = size;
+	}
+
+	/**
+	 * @param entries must not contain null values
+	 */
+	static InstanceTable of(Map<Class<?>, ?> entries) {
+		return EMPTY.plus(entries::forEach, entries.size());
+	}
+
+	/**
+	 * @return a table with all the entries of this one,
+	 * plus those of <code>other</code> whose keys this one doesn't already have
+	 */
+	InstanceTable plus(InstanceTable other) {
+		return plus(other::forEach, other.size);
+	}
+
+	private InstanceTable plus(Consumer<BiConsumer<Class<?>, Object>> entries, int numEntries) {
+		if (numEntries == 0) {
+			return this;
+		}
+		int capacity = Integer.highestOneBit((size + numEntries) * 2 - 1) << 1;
+		Object[] newSlots = new Object[capacity * 2];
+		int[] newSize = { 0 };
+		BiConsumer<Class<?>, Object> add = (type, value) -> {
+			if (put(newSlots, type, value)) {
+				newSize[0]++;
+			}
+		};
+		forEach(add);
+		entries.accept(add);
+		return new InstanceTable(newSlots, newSize[0]);
+	}
+
+	/**
+	 * @return null if there is no entry for <code>type</code>
+	 */
+	Object get(Class<?> type) {
+		Object[] slots = this.slots;
+		int mask = slots.length - 2;
+		for (int i = index(type, mask); ; i = (i + 2) & mask) {
+			Object key = slots[i];
+			if (key == type) {
+				return slots[i + 1];
+			} else if (key == null) {
+				return null;
+			}
+		}
+	}
+
+	void forEach(BiConsumer<Class<?>, Object> action) {
+		for (int i = 0; i < slots.length; i += 2) {
+			if (slots[i] != null) {
+				action.accept((Class<?>) slots[i], slots[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * @return false if <code>slots</code> already has an entry for <code>type</code>, which is left unchanged
+	 */
+	private static boolean put(Object[] slots, Class<?> type, Object value) {
+		int mask = slots.length - 2;
+		for (int i = index(type, mask); ; i = (i + 2) & mask) {
+			Object key = slots[i];
+			if (key == type) {
+				return false;
+			} else if (key == null) {
+				slots[i] = type;
+				slots[i + 1] = value;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return an even index into the slots
+	 */
+	private static int index(Class<?> type, int mask) {
+		int h = System.identityHashCode(type);
+		return ((h ^ (h >>> 16)) << 1) & mask;
+	}
+}
@@ -0,0 +1,123 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.elasticsearch.nalbind.api.Injected;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Method handles through which to call a singleton's constructor and its {@link Injected} methods.
+ * <p>
+ * Like {@link SingletonMetadata}, these are the same no matter which injector uses them,
+ * so they're created once per class and shared, and injectors built repeatedly,
+ * such as child injectors or those in tests, pay for the lookup only once.
+ * Unlike core reflection, calls through them don't repeat access checks or copy argument arrays,
+ * and exceptions thrown by the callee aren't wrapped in {@link java.lang.reflect.InvocationTargetException}.
+ *
+ * @param constructor of type <code>(Object[])Object</code>, taking the constructor's arguments
+ * @param injectedMethods in the same order as {@link ConstructorSpec#reportInjectedMethods}
+ */
+record Invokers(
+	ConstructorSpec spec,
+	MethodHandle constructor,
+	List<InjectedMethod> injectedMethods
+) {
+	private static final ClassValue<AtomicReference<Invokers>> CACHE = new ClassValue<>() {
+		@Override
+		protected AtomicReference<Invokers> computeValue(Class<?> type) {
+			return new AtomicReference<>();
+		}
+	};
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/**
+	 * @param invoker of type <code>(Object, Object)void</code>
+	 * @param elementType the type of the objects the method should receive
+	 * @param multicast whether the method takes <code>elementType</code> itself, rather than a collection of them,
+	 *                  and so receives a {@link ProxyFactory#generateMulticast multicast} proxy for all of them
+	 */
+	record InjectedMethod(Method method, MethodHandle invoker, Class<?> elementType, boolean multicast) {
+		/**
+		 * @param argument from {@link #argument}
+		 */
+		void invoke(Object target, Object argument) {
+			try {
+				invoker.invokeExact(target, argument);
+			} catch (Throwable e) {
+				throw new IllegalStateException("Can't invoke " + Injected.class.getSimpleName() + " method " + method, e);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		Object argument(List<?> objects, ProxyFactory proxyFactory) {
+			return multicast ? proxyFactory.generateMulticast((Class<Object>) elementType, objects) : objects;
+		}
+	}
+
+	/**
+	 * @return the cached invokers for <code>spec</code>, creating them if necessary
+	 */
+	static Invokers of(ConstructorSpec spec) {
+		var ref = CACHE.get(spec.requestedType());
+		var result = ref.get();
+		if (result == null || (result.spec != spec && !result.spec.equals(spec))) {
+			result = create(spec);
+			// Racing threads create equivalent invokers, so it doesn't matter who wins
+			ref.set(result);
+		}
+		return result;
+	}
+
+	Object newInstance(Object[] args) {
+		try {
+			return constructor.invokeExact(args);
+		} catch (Throwable e) {
+			throw new IllegalStateException("Unable to call constructor of " + spec.requestedType().getName(), e);
+		}
+	}
+
+	private static Invokers create(ConstructorSpec spec) {
+		Class<?> type = spec.requestedType();
+		// Core reflection assumes readability, but method handle lookups don't
+		Invokers.class.getModule().addReads(type.getModule());
+		try {
+			MethodHandle constructor = LOOKUP.unreflectConstructor(spec.constructor())
+				.asSpreader(Object[].class, spec.parameters().size())
+				.asType(methodType(Object.class, Object[].class));
+			List<InjectedMethod> injectedMethods = new ArrayList<>(spec.reportInjectedMethods().size());
+			for (var m: spec.reportInjectedMethods()) {
+				Invokers.class.getModule().addReads(m.getDeclaringClass().getModule());
+				MethodHandle invoker = LOOKUP.unreflect(m)
+					.asType(methodType(void.class, Object.class, Object.class));
+				Class<?> parameterType = m.getParameterTypes()[0];
+				if (Collection.class.equals(parameterType)) {
+					Type elementType = ((ParameterizedType) m.getGenericParameterTypes()[0]).getActualTypeArguments()[0];
+					injectedMethods.add(new InjectedMethod(m, invoker, rawClass(elementType), false));
+				} else {
+					injectedMethods.add(new InjectedMethod(m, invoker, parameterType, true));
+				}
+			}
+			return new Invokers(spec, constructor, List.copyOf(injectedMethods));
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Unable to access " + type.getName(), e);
+		}
+	}
+
+	private static Class<?> rawClass(Type sourceType) {
+		if (sourceType instanceof ParameterizedType pt) {
+			return (Class<?>)pt.getRawType();
+		} else {
+			return (Class<?>)sourceType;
+		}
+	}
+}
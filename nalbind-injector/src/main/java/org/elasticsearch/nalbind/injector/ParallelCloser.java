@@ -0,0 +1,229 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.elasticsearch.nalbind.injector.spec.AliasSpec;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Closes the {@link AutoCloseable} singletons of an instantiation plan, each only after all those that depend on it,
+ * so that every singleton can still use its dependencies while it closes.
+ * <p>
+ * The dependencies are those of the plan: constructor parameters and alias subtypes.
+ * Singletons in a dependency cycle form a group, and are closed one at a time, in reverse order of instantiation.
+ * Otherwise, groups that don't depend on each other are closed concurrently,
+ * so the total time is that of the slowest chain of dependencies, rather than the sum of all of them.
+ * <p>
+ * A singleton that fails to close, or doesn't close in time, doesn't stop its dependencies from closing.
+ */
+final class ParallelCloser {
+	private final List<Group> groups;
+	private final Executor executor;
+	private final Duration timeout;
+	private final AtomicInteger remaining;
+	private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+	private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+	private ParallelCloser(List<Group> groups, Executor executor, Duration timeout) {
+		this.groups = groups;
+		this.executor = executor;
+		this.timeout = timeout;
+		this.remaining = new AtomicInteger(groups.size());
+	}
+
+	/**
+	 * @param instanceOf the object constructed for each {@link ConstructorSpec}, or null if there is none
+	 * @param executor null to close each singleton on the calling thread
+	 * @param timeout how long to wait for each singleton to close; null to wait indefinitely.
+	 *                Ignored if <code>executor</code> is null.
+	 * @return the reasons some singletons couldn't be closed, if any
+	 */
+	static List<Throwable> close(
+		Collection<UnambiguousSpec> plan,
+		Function<Class<?>, Object> instanceOf,
+		Executor executor,
+		Duration timeout
+	) {
+		var closer = new ParallelCloser(buildGroups(plan, instanceOf), executor, timeout);
+		closer.run();
+		return List.copyOf(closer.failures);
+	}
+
+	/**
+	 * A strongly connected component of the plan's dependency graph.
+	 */
+	private static final class Group {
+		/**
+		 * In reverse order of instantiation.
+		 */
+		final List<AutoCloseable> members = new ArrayList<>();
+
+		/**
+		 * The groups that can't be closed until this one has been.
+		 */
+		final List<Group> dependencies = new ArrayList<>();
+
+		final AtomicInteger pendingDependents = new AtomicInteger(0);
+	}
+
+	private static List<Group> buildGroups(Collection<UnambiguousSpec> plan, Function<Class<?>, Object> instanceOf) {
+		var builder = new SpecGraph.Builder();
+		for (var spec: plan) {
+			int id = builder.id(spec.requestedType());
+			switch (spec) {
+				case ConstructorSpec c -> builder.register(id, c, c.parameters().stream()
+					.mapToInt(p -> builder.id(p.type()))
+					.toArray());
+				case AliasSpec a -> builder.register(id, a, new int[] { builder.id(a.subtype()) });
+			}
+		}
+		SpecGraph graph = builder.build();
+		boolean[] allEdges = new boolean[graph.edgeTargets().length];
+		Arrays.fill(allEdges, true);
+		int[] component = ComponentFinder.components(graph, allEdges);
+
+		Group[] groupsByComponent = new Group[graph.numTypes()];
+		List<Group> result = new ArrayList<>();
+		int[] specOrder = graph.specOrder();
+		for (int i = specOrder.length - 1; i >= 0; i--) {
+			int id = specOrder[i];
+			var group = groupsByComponent[component[id]];
+			if (group == null) {
+				group = groupsByComponent[component[id]] = new Group();
+				result.add(group);
+			}
+			if (graph.specs()[id] instanceof ConstructorSpec && instanceOf.apply(graph.types()[id]) instanceof AutoCloseable c) {
+				group.members.add(c);
+			}
+		}
+		int[] edgeStart = graph.edgeStart();
+		int[] edgeTargets = graph.edgeTargets();
+		for (int id: specOrder) {
+			var group = groupsByComponent[component[id]];
+			for (int edge = edgeStart[id]; edge < edgeStart[id + 1]; edge++) {
+				var dependency = groupsByComponent[component[edgeTargets[edge]]];
+				// A null dependency is one this plan doesn't construct, such as a type inherited from a parent injector
+				if (dependency != null && dependency != group) {
+					group.dependencies.add(dependency);
+					dependency.pendingDependents.incrementAndGet();
+				}
+			}
+		}
+		return result;
+	}
+
+	private void run() {
+		if (groups.isEmpty()) {
+			return;
+		}
+		// Determine these before starting any, because groups become ready as others finish
+		var initiallyReady = groups.stream()
+			.filter(g -> g.pendingDependents.get() == 0)
+			.toList();
+		Deque<Group> finished = new ArrayDeque<>();
+		initiallyReady.forEach(g -> start(g, finished));
+		release(finished);
+		try {
+			done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while closing singletons", e);
+		} catch (ExecutionException e) {
+			throw new AssertionError("Closing singletons should not fail as a whole", e.getCause());
+		}
+	}
+
+	/**
+	 * Closes <code>group</code> on the current thread if there's nothing to gain from the executor,
+	 * adding it to <code>finished</code>; otherwise, submits it to the executor.
+	 */
+	private void start(Group group, Deque<Group> finished) {
+		if (executor == null || group.members.isEmpty()) {
+			closeMembers(group);
+			finished.push(group);
+			return;
+		}
+		CompletableFuture<Void> closed;
+		try {
+			closed = CompletableFuture.runAsync(() -> closeMembers(group), executor);
+		} catch (RejectedExecutionException e) {
+			failures.add(e);
+			finished.push(group);
+			return;
+		}
+		if (timeout != null) {
+			// A group is a cycle, whose members close one at a time, each with the full timeout
+			closed.orTimeout(timeout.multipliedBy(group.members.size()).toNanos(), TimeUnit.NANOSECONDS);
+		}
+		closed.whenComplete((__, e) -> {
+			if (e instanceof TimeoutException) {
+				LOGGER.warn("Timed out closing {}; continuing without it", names(group));
+				failures.add(new TimeoutException("Timed out after " + timeout + " closing " + names(group)));
+			}
+			Deque<Group> justFinished = new ArrayDeque<>();
+			justFinished.push(group);
+			release(justFinished);
+		});
+	}
+
+	/**
+	 * Starts the dependencies of the <code>finished</code> groups that have no more dependents,
+	 * iteratively rather than recursively, so that a long chain of groups closed on the calling thread
+	 * can't overflow the stack.
+	 */
+	private void release(Deque<Group> finished) {
+		while (!finished.isEmpty()) {
+			var group = finished.pop();
+			for (var dependency: group.dependencies) {
+				if (dependency.pendingDependents.decrementAndGet() == 0) {
+					start(dependency, finished);
+				}
+			}
+			if (remaining.decrementAndGet() == 0) {
+				done.complete(null);
+			}
+		}
+	}
+
+	private void closeMembers(Group group) {
+		for (var member: group.members) {
+			LOGGER.debug("Closing {}", member.getClass().getSimpleName());
+			try {
+				member.close();
+			} catch (Throwable e) {
+				if (e instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				LOGGER.debug("Failed to close {}", member.getClass().getName(), e);
+				failures.add(new IllegalStateException("Unable to close " + member.getClass().getName(), e));
+			}
+		}
+	}
+
+	private static String names(Group group) {
+		return group.members.stream()
+			.map(m -> m.getClass().getName())
+			.toList()
+			.toString();
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParallelCloser.class);
+}
@@ -0,0 +1,227 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.elasticsearch.nalbind.injector.spec.AliasSpec;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes an instantiation plan by calling independent constructors concurrently.
+ * <p>
+ * The plan is turned into a DAG in which each constructor depends on the constructors
+ * of the objects that sequential execution would pass as its arguments.
+ * That includes all <code>@Now</code> parameters; other parameters depend on nothing
+ * if they would receive a proxy.
+ * Each constructor therefore receives exactly the same arguments as it would in sequential mode.
+ * <p>
+ * If a constructor throws, no further constructors are started,
+ * but those already running are allowed to finish before the failure is rethrown,
+ * so that none is still running once the injector gives up.
+ * Any of them that also throw are attached to the first failure as suppressed exceptions.
+ */
+final class ParallelPlanExecutor {
+	private final List<Node> nodes;
+	private final Executor executor;
+	private final Map<Class<?>, Duration> constructorTimes;
+	private final AtomicInteger remaining;
+
+	/**
+	 * Nodes submitted to the executor that haven't yet finished, whether or not they've started.
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+
+	/**
+	 * The first failure, to which any later ones are added as suppressed.
+	 */
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+	private ParallelPlanExecutor(List<Node> nodes, Executor executor, Map<Class<?>, Duration> constructorTimes) {
+		this.nodes = nodes;
+		this.executor = executor;
+		this.constructorTimes = constructorTimes;
+		this.remaining = new AtomicInteger(nodes.size());
+	}
+
+	/**
+	 * @param proxiesByType the objects to pass for types that are not yet instantiated when a constructor is called
+	 * @param constructorTimes a concurrent map that receives the time taken by each constructor
+	 * @return the constructed objects, in the order of the {@link ConstructorSpec}s in <code>plan</code>
+	 */
+	static List<Object> execute(
+		Collection<UnambiguousSpec> plan,
+		Map<Class<?>, Object> proxiesByType,
+		Executor executor,
+		Map<Class<?>, Duration> constructorTimes
+	) {
+		var result = new ParallelPlanExecutor(buildGraph(plan, proxiesByType), executor, constructorTimes);
+		result.run();
+		return result.nodes.stream()
+			.map(n -> n.result)
+			.toList();
+	}
+
+	private static final class Node {
+		final ConstructorSpec spec;
+
+		/**
+		 * Proxies are filled in up front; the rest are filled in when the node runs.
+		 */
+		final Object[] args;
+
+		/**
+		 * For each element of {@link #args}, the node that constructs it, or null if it's a proxy.
+		 */
+		final Node[] argNodes;
+
+		final List<Node> dependents = new ArrayList<>();
+		final AtomicInteger pendingDependencies = new AtomicInteger(0);
+		Object result;
+
+		Node(ConstructorSpec spec) {
+			this.spec = spec;
+			this.args = new Object[spec.parameters().size()];
+			this.argNodes = new Node[spec.parameters().size()];
+		}
+	}
+
+	/**
+	 * Simulates sequential execution to determine where each argument comes from.
+	 */
+	private static List<Node> buildGraph(Collection<UnambiguousSpec> plan, Map<Class<?>, Object> proxiesByType) {
+		List<Node> nodes = new ArrayList<>();
+		Map<Class<?>, Node> nodesByType = new HashMap<>();
+		for (var spec: plan) {
+			switch (spec) {
+				case ConstructorSpec c -> {
+					Node node = new Node(c);
+					var parameters = c.parameters();
+					for (int i = 0; i < parameters.size(); i++) {
+						Class<?> type = parameters.get(i).type();
+						Node argNode = nodesByType.get(type);
+						if (argNode != null) {
+							node.argNodes[i] = argNode;
+							// A node's edges are added consecutively, so any duplicate would be the last one
+							if (argNode.dependents.isEmpty() || argNode.dependents.getLast() != node) {
+								argNode.dependents.add(node);
+								node.pendingDependencies.incrementAndGet();
+							}
+						} else if (proxiesByType.containsKey(type)) {
+							node.args[i] = proxiesByType.get(type);
+						} else {
+							throw new IllegalStateException("No injectable instance of " + type);
+						}
+					}
+					nodes.add(node);
+					nodesByType.put(c.requestedType(), node);
+				}
+				case AliasSpec(var requestedType, var subtype) -> {
+					Node subtypeNode = nodesByType.get(subtype);
+					if (subtypeNode == null) {
+						throw new IllegalStateException("No injectable instance of " + subtype);
+					}
+					nodesByType.put(requestedType, subtypeNode);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	private void run() {
+		if (nodes.isEmpty()) {
+			return;
+		}
+		// Determine these before submitting any, because nodes become ready as others finish
+		var initiallyReady = nodes.stream()
+			.filter(n -> n.pendingDependencies.get() == 0)
+			.toList();
+		initiallyReady.forEach(this::submit);
+		try {
+			done.get();
+		} catch (InterruptedException e) {
+			// Stop starting constructors, without waiting for those already running
+			fail(e);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while instantiating singletons", e);
+		} catch (ExecutionException e) {
+			switch (e.getCause()) {
+				case RuntimeException r -> throw r;
+				case Error err -> throw err;
+				default -> throw new IllegalStateException("Unable to instantiate singletons", e.getCause());
+			}
+		}
+	}
+
+	private void submit(Node node) {
+		inFlight.incrementAndGet();
+		try {
+			executor.execute(() -> instantiate(node));
+		} catch (RejectedExecutionException e) {
+			fail(e);
+			finished();
+		}
+	}
+
+	private void instantiate(Node node) {
+		try {
+			if (failure.get() != null) {
+				LOGGER.trace("Skipping {} after failure", node.spec);
+				return;
+			}
+			try {
+				for (int i = 0; i < node.args.length; i++) {
+					if (node.argNodes[i] != null) {
+						node.args[i] = node.argNodes[i].result;
+					}
+				}
+				LOGGER.debug("Instantiating {}", node.spec.requestedType().getSimpleName());
+				node.result = Injector.newInstance(node.spec, node.args, constructorTimes);
+			} catch (Throwable e) {
+				fail(e);
+				return;
+			}
+			// Submitted before this node counts as finished, so inFlight can't reach zero in between
+			for (var dependent: node.dependents) {
+				if (dependent.pendingDependencies.decrementAndGet() == 0) {
+					submit(dependent);
+				}
+			}
+			if (remaining.decrementAndGet() == 0) {
+				done.complete(null);
+			}
+		} finally {
+			finished();
+		}
+	}
+
+	private void fail(Throwable e) {
+		if (!failure.compareAndSet(null, e)) {
+			LOGGER.debug("Further failure while instantiating singletons", e);
+			failure.get().addSuppressed(e);
+		}
+	}
+
+	/**
+	 * Once a node has failed, completes {@link #done} when the last node in flight finishes.
+	 */
+	private void finished() {
+		if (inFlight.decrementAndGet() == 0 && failure.get() != null) {
+			done.completeExceptionally(failure.get());
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParallelPlanExecutor.class);
+}
@@ -0,0 +1,395 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.ModuleDescriptor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.elasticsearch.nalbind.injector.spec.AliasSpec;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.ParameterSpec;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Stores an instantiation plan in a file so a later injector for the same classes
+ * can skip computing specs and planning.
+ * <p>
+ * The file is valid only for the same root set, module layer descriptors, JVM version and planner,
+ * and only if none of the class files the plan was computed from have changed.
+ * All of these are combined into a fingerprint stored with the plan.
+ * Any mismatch or error makes {@link #read} return null, and the caller computes the plan as usual.
+ * <p>
+ * The format is binary, with all class and method names stored once in a string table:
+ *
+ * <pre>
+ * int magic, int version
+ * int stringCount, { int length, byte[length] utf8 }*
+ * int fingerprintClassCount, { int string }*
+ * byte[32] fingerprint
+ * int specCount, {
+ *   byte CONSTRUCTOR, int class,
+ *     int parameterCount, { int type, byte now }*,
+ *     int injectedCount, { int declaringClass, int name, int parameterType }*,
+ *     int supertypeCount, { int supertype }*
+ *   | byte ALIAS, int requestedType, int subtype
+ * }*
+ * int proxyCount, { int type }*
+ * </pre>
+ */
+final class PlanCache {
+	private static final int MAGIC = 0x4E42_4C50; // "NBLP"
+	private static final int VERSION = 1;
+	private static final byte CONSTRUCTOR = 0;
+	private static final byte ALIAS = 1;
+
+	private final Path file;
+	private final ModuleLayer layer;
+	private final Collection<Class<?>> rootSet;
+	private final boolean proxiesOnlyForCycles;
+	private final List<ClassLoader> loaders;
+
+	/**
+	 * @param plan in execution order
+	 * @param proxiedTypes the types that need proxies
+	 */
+	record CachedPlan(List<UnambiguousSpec> plan, List<Class<?>> proxiedTypes) { }
+
+	/**
+	 * @param layer null if the root set didn't come from a module layer
+	 * @param proxiesOnlyForCycles which planner computed the plan
+	 */
+	PlanCache(Path file, ModuleLayer layer, Collection<Class<?>> rootSet, boolean proxiesOnlyForCycles) {
+		this.file = file;
+		this.layer = layer;
+		this.rootSet = rootSet;
+		this.proxiesOnlyForCycles = proxiesOnlyForCycles;
+		Set<ClassLoader> loaders = new LinkedHashSet<>();
+		rootSet.forEach(c -> loaders.add(c.getClassLoader()));
+		if (layer != null) {
+			addLoaders(layer, loaders);
+		}
+		loaders.add(ClassLoader.getSystemClassLoader());
+		loaders.remove(null);
+		this.loaders = List.copyOf(loaders);
+	}
+
+	private static void addLoaders(ModuleLayer layer, Set<ClassLoader> loaders) {
+		layer.modules().forEach(m -> loaders.add(m.getClassLoader()));
+		layer.parents().forEach(p -> addLoaders(p, loaders));
+	}
+
+	/**
+	 * @return null if there's no valid plan in the file
+	 */
+	CachedPlan read() {
+		try (var channel = FileChannel.open(file, READ)) {
+			var reader = new Reader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			var result = reader.readPlan();
+			if (result == null) {
+				LOGGER.info("Plan cache {} is out of date", file);
+			} else {
+				LOGGER.debug("Read plan with {} specs from cache {}", result.plan().size(), file);
+			}
+			return result;
+		} catch (NoSuchFileException e) {
+			LOGGER.debug("No plan cache at {}", file);
+			return null;
+		} catch (IOException | ReflectiveOperationException | RuntimeException e) {
+			LOGGER.info("Ignoring unusable plan cache {}", file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the file atomically. Failures are logged, not thrown, because the cache is only an optimization.
+	 *
+	 * @param dependencies the classes whose class files determine the plan, in addition to the root set
+	 */
+	void write(Collection<UnambiguousSpec> plan, List<Class<?>> proxiedTypes, Collection<Class<?>> dependencies) {
+		try {
+			var writer = new Writer();
+			byte[] bytes = writer.writePlan(plan, proxiedTypes, dependencies);
+			Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+			try {
+				Files.write(tempFile, bytes);
+				Files.move(tempFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+			LOGGER.debug("Wrote plan with {} specs to cache {}", plan.size(), file);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Unable to write plan cache {}", file, e);
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException if a class file can't be read
+	 */
+	private byte[] fingerprint(List<Class<?>> fingerprintClasses) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-256 is required to be supported", e);
+		}
+		update(digest, Runtime.version().toString());
+		update(digest, proxiesOnlyForCycles ? "topological" : "default");
+		if (layer != null) {
+			layer.modules().stream()
+				.map(Module::getDescriptor)
+				.sorted(Comparator.comparing(ModuleDescriptor::name))
+				.forEach(d -> update(digest, canonicalForm(d)));
+		}
+		rootSet.stream()
+			.map(Class::getName)
+			.sorted()
+			.forEach(name -> update(digest, name));
+		for (var c: fingerprintClasses) {
+			update(digest, c.getName());
+			String resourceName = c.getName().replace('.', '/') + ".class";
+			try (InputStream in = c.getModule().getResourceAsStream(resourceName)) {
+				if (in == null) {
+					throw new IllegalStateException("Unable to find class file for " + c.getName());
+				}
+				digest.update(in.readAllBytes());
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to read class file for " + c.getName(), e);
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Unlike {@link ModuleDescriptor#toString}, doesn't depend on the iteration order of the descriptor's sets.
+	 */
+	private static String canonicalForm(ModuleDescriptor d) {
+		return Stream.of(
+				Stream.of(d.toNameAndVersion()),
+				d.requires().stream().map(Object::toString).sorted(),
+				d.exports().stream().map(Object::toString).sorted(),
+				d.opens().stream().map(Object::toString).sorted(),
+				d.uses().stream().sorted(),
+				d.provides().stream().map(p -> p.service() + " with " + p.providers()).sorted(),
+				d.packages().stream().sorted())
+			.flatMap(identity())
+			.collect(joining("\n"));
+	}
+
+	private static void update(MessageDigest digest, String s) {
+		digest.update(s.getBytes(UTF_8));
+		digest.update((byte) 0);
+	}
+
+	private final class Writer {
+		final List<String> strings = new ArrayList<>();
+		final Map<String, Integer> stringIndexes = new HashMap<>();
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(body);
+
+		byte[] writePlan(Collection<UnambiguousSpec> plan, List<Class<?>> proxiedTypes, Collection<Class<?>> dependencies) throws IOException {
+			Set<Class<?>> fingerprintClasses = new LinkedHashSet<>(rootSet);
+			fingerprintClasses.addAll(dependencies);
+			var fingerprintClassList = List.copyOf(fingerprintClasses);
+			out.writeInt(fingerprintClassList.size());
+			for (var c: fingerprintClassList) {
+				writeClass(c);
+			}
+			out.write(fingerprint(fingerprintClassList));
+
+			out.writeInt(plan.size());
+			for (var spec: plan) {
+				switch (spec) {
+					case ConstructorSpec c -> {
+						out.writeByte(CONSTRUCTOR);
+						writeClass(c.requestedType());
+						out.writeInt(c.parameters().size());
+						for (var p: c.parameters()) {
+							writeClass(p.type());
+							out.writeBoolean(p.now());
+						}
+						out.writeInt(c.reportInjectedMethods().size());
+						for (var m: c.reportInjectedMethods()) {
+							writeClass(m.getDeclaringClass());
+							writeString(m.getName());
+							writeClass(m.getParameterTypes()[0]);
+						}
+						var supertypes = SingletonMetadata.of(c.requestedType(), InjectionIndex.empty()).supertypes();
+						out.writeInt(supertypes.size());
+						for (var s: supertypes) {
+							writeClass(s);
+						}
+					}
+					case AliasSpec(var requestedType, var subtype) -> {
+						out.writeByte(ALIAS);
+						writeClass(requestedType);
+						writeClass(subtype);
+					}
+				}
+			}
+			out.writeInt(proxiedTypes.size());
+			for (var t: proxiedTypes) {
+				writeClass(t);
+			}
+			out.flush();
+
+			var result = new ByteArrayOutputStream();
+			var header = new DataOutputStream(result);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeInt(strings.size());
+			for (var s: strings) {
+				byte[] utf8 = s.getBytes(UTF_8);
+				header.writeInt(utf8.length);
+				header.write(utf8);
+			}
+			header.flush();
+			body.writeTo(result);
+			return result.toByteArray();
+		}
+
+		void writeClass(Class<?> c) throws IOException {
+			writeString(c.getName());
+		}
+
+		void writeString(String s) throws IOException {
+			out.writeInt(stringIndexes.computeIfAbsent(s, __ -> {
+				strings.add(s);
+				return strings.size() - 1;
+			}));
+		}
+	}
+
+	private final class Reader {
+		final ByteBuffer buffer;
+		String[] strings;
+		final Map<String, Class<?>> classesByName = new HashMap<>();
+
+		Reader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * @return null if the file doesn't match the current classes
+		 */
+		CachedPlan readPlan() throws ReflectiveOperationException {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return null;
+			}
+			strings = new String[buffer.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				byte[] utf8 = new byte[buffer.getInt()];
+				buffer.get(utf8);
+				strings[i] = new String(utf8, UTF_8);
+			}
+
+			List<Class<?>> fingerprintClasses = new ArrayList<>();
+			int numFingerprintClasses = buffer.getInt();
+			for (int i = 0; i < numFingerprintClasses; i++) {
+				fingerprintClasses.add(readClass());
+			}
+			byte[] storedFingerprint = new byte[32];
+			buffer.get(storedFingerprint);
+			if (!Arrays.equals(storedFingerprint, fingerprint(fingerprintClasses))) {
+				return null;
+			}
+
+			int numSpecs = buffer.getInt();
+			List<UnambiguousSpec> plan = new ArrayList<>(numSpecs);
+			for (int i = 0; i < numSpecs; i++) {
+				byte kind = buffer.get();
+				switch (kind) {
+					case CONSTRUCTOR -> plan.add(readConstructorSpec());
+					case ALIAS -> plan.add(new AliasSpec(readClass(), readClass()));
+					default -> throw new IllegalStateException("Unexpected spec kind " + kind);
+				}
+			}
+			int numProxies = buffer.getInt();
+			List<Class<?>> proxiedTypes = new ArrayList<>(numProxies);
+			for (int i = 0; i < numProxies; i++) {
+				proxiedTypes.add(readClass());
+			}
+			if (buffer.hasRemaining()) {
+				throw new IllegalStateException("Unexpected data at end of plan cache");
+			}
+			return new CachedPlan(List.copyOf(plan), List.copyOf(proxiedTypes));
+		}
+
+		private ConstructorSpec readConstructorSpec() throws ReflectiveOperationException {
+			Class<?> c = readClass();
+			int numParameters = buffer.getInt();
+			List<ParameterSpec> parameters = new ArrayList<>(numParameters);
+			for (int i = 0; i < numParameters; i++) {
+				parameters.add(new ParameterSpec(readClass(), buffer.get() != 0));
+			}
+			int numMethods = buffer.getInt();
+			List<Method> methods = new ArrayList<>(numMethods);
+			for (int i = 0; i < numMethods; i++) {
+				Class<?> declaringClass = readClass();
+				String name = readString();
+				methods.add(declaringClass.getDeclaredMethod(name, readClass()));
+			}
+			int numSupertypes = buffer.getInt();
+			List<Class<?>> supertypes = new ArrayList<>(numSupertypes);
+			for (int i = 0; i < numSupertypes; i++) {
+				supertypes.add(readClass());
+			}
+			var result = new ConstructorSpec(c, List.copyOf(parameters), List.copyOf(methods));
+			SingletonMetadata.remember(c, new SingletonMetadata(result, List.copyOf(supertypes)));
+			return result;
+		}
+
+		private String readString() {
+			return strings[buffer.getInt()];
+		}
+
+		private Class<?> readClass() throws ClassNotFoundException {
+			String name = readString();
+			Class<?> result = classesByName.get(name);
+			if (result == null) {
+				result = load(name);
+				classesByName.put(name, result);
+			}
+			return result;
+		}
+
+		private Class<?> load(String name) throws ClassNotFoundException {
+			for (var loader: loaders) {
+				try {
+					return Class.forName(name, false, loader);
+				} catch (ClassNotFoundException e) {
+					LOGGER.trace("Class {} not found by {}", name, loader);
+				}
+			}
+			throw new ClassNotFoundException(name);
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PlanCache.class);
+}
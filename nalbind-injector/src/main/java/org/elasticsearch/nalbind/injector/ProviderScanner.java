@@ -0,0 +1,142 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.elasticsearch.nalbind.api.InjectableSingleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Finds the classes that provide {@link InjectableSingleton}, either as declared by the <code>provides</code>
+ * directives of modules, or listed in <code>META-INF/services</code> files on a class path.
+ * <p>
+ * Classes are loaded but not initialized, so their static initializers run only when they're instantiated.
+ * Modules are scanned in parallel, since for a large layer, the scan is dominated by loading each module's classes.
+ */
+final class ProviderScanner {
+	static final String SERVICES_RESOURCE_NAME = "META-INF/services/" + InjectableSingleton.class.getName();
+
+	private ProviderScanner() { }
+
+	/**
+	 * @param classPath null to skip the class path
+	 * @return the providers declared by <code>modules</code>, followed by those listed on <code>classPath</code>
+	 */
+	static Collection<Class<?>> scan(List<Module> modules, ClassLoader classPath) {
+		Set<Class<?>> result = providedBy(modules);
+		if (classPath != null) {
+			result.addAll(listedBy(classPath));
+		}
+		return result;
+	}
+
+	/**
+	 * @param includeParents whether to include the modules of all the layer's ancestors as well
+	 * @return the modules to scan, sorted by name so the results don't depend on hash order
+	 */
+	static List<Module> modules(ModuleLayer layer, boolean includeParents) {
+		List<Module> result = new ArrayList<>(layer.modules());
+		if (includeParents) {
+			Set<ModuleLayer> visited = new HashSet<>();
+			visited.add(layer);
+			Deque<ModuleLayer> pending = new ArrayDeque<>(layer.parents());
+			while (!pending.isEmpty()) {
+				var ancestor = pending.pop();
+				if (visited.add(ancestor)) {
+					result.addAll(ancestor.modules());
+					pending.addAll(ancestor.parents());
+				}
+			}
+		}
+		result.sort(Comparator.comparing(Module::getName));
+		return result;
+	}
+
+	/**
+	 * @return the providers declared by <code>modules</code>, in module order and then declaration order
+	 */
+	static Set<Class<?>> providedBy(List<Module> modules) {
+		Set<Class<?>> result = new LinkedHashSet<>();
+		modules.parallelStream()
+			.map(ProviderScanner::providedBy)
+			.forEachOrdered(result::addAll);
+		LOGGER.debug("Found {} providers in {} modules", result.size(), modules.size());
+		return result;
+	}
+
+	private static List<Class<?>> providedBy(Module m) {
+		List<Class<?>> result = new ArrayList<>();
+		for (var p: m.getDescriptor().provides()) {
+			if (InjectableSingleton.class.getName().equals(p.service())) {
+				for (var name: p.providers()) {
+					// Doesn't initialize the class
+					Class<?> c = Class.forName(m, name);
+					if (c == null) {
+						throw new IllegalStateException("Provider " + name + " not found in module " + m.getName());
+					}
+					result.add(c);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the providers listed in every <code>META-INF/services</code> file for {@link InjectableSingleton}
+	 * that <code>loader</code> can see, in the order the files and their lines are found
+	 */
+	static Set<Class<?>> listedBy(ClassLoader loader) {
+		Set<Class<?>> result = new LinkedHashSet<>();
+		try {
+			for (var url: resources(loader, SERVICES_RESOURCE_NAME)) {
+				for (var name: providerNames(url)) {
+					result.add(Class.forName(name, false, loader));
+				}
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalStateException("Unable to scan class path for " + InjectableSingleton.class.getSimpleName() + " providers", e);
+		}
+		LOGGER.debug("Found {} providers on the class path", result.size());
+		return result;
+	}
+
+	static List<URL> resources(ClassLoader loader, String name) throws IOException {
+		List<URL> result = new ArrayList<>();
+		loader.getResources(name).asIterator().forEachRemaining(result::add);
+		return result;
+	}
+
+	/**
+	 * Parses the format described by {@link java.util.ServiceLoader}.
+	 */
+	private static List<String> providerNames(URL url) throws IOException {
+		List<String> result = new ArrayList<>();
+		try (InputStream in = url.openStream()) {
+			var reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				int comment = line.indexOf('#');
+				String name = ((comment >= 0) ? line.substring(0, comment) : line).strip();
+				if (!name.isEmpty()) {
+					result.add(name);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProviderScanner.class);
+}
@@ -1,38 +1,62 @@
 package org.elasticsearch.nalbind.injector;
 
 import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.VarHandle;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
 import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static java.lang.constant.ConstantDescs.DEFAULT_NAME;
+import static java.lang.invoke.MethodHandles.classData;
 import static java.lang.invoke.MethodHandles.constant;
+import static java.lang.invoke.MethodHandles.insertArguments;
 import static java.lang.invoke.MethodHandles.lookup;
+import static java.lang.invoke.MethodHandles.privateLookupIn;
 import static java.lang.invoke.MethodType.methodType;
 import static java.lang.invoke.MutableCallSite.syncAll;
+import static java.lang.reflect.Modifier.isAbstract;
+import static java.lang.reflect.Modifier.isPrivate;
 import static java.lang.reflect.Modifier.isStatic;
+import static java.util.Arrays.asList;
 import static java.util.Objects.requireNonNull;
 import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
 import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
 import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
 import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_VOLATILE;
 import static org.objectweb.asm.Opcodes.ALOAD;
 import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.GETFIELD;
+import static org.objectweb.asm.Opcodes.IFNONNULL;
 import static org.objectweb.asm.Opcodes.ILOAD;
 import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
 import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
@@ -40,6 +64,7 @@ import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
 import static org.objectweb.asm.Opcodes.IRETURN;
 import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V11;
 import static org.objectweb.asm.Opcodes.V1_8;
 import static org.objectweb.asm.Type.getDescriptor;
 import static org.objectweb.asm.Type.getInternalName;
@@ -49,8 +74,57 @@ import static org.objectweb.asm.Type.getType;
 
 
 public class ProxyFactory {
-	private static final Map<String, MutableCallSite> callSites = new ConcurrentHashMap<>();
-	private static final AtomicInteger numCallSites = new AtomicInteger(0);
+	/**
+	 * Proxy class bytes depend only on the interface and strategy, so they can be shared by all proxies
+	 * for that interface, even across injectors.
+	 */
+	private static final Map<ProxyStrategy, ClassValue<ProxyTemplate>> TEMPLATES = new EnumMap<>(ProxyStrategy.class);
+
+	static {
+		for (var strategy: ProxyStrategy.values()) {
+			TEMPLATES.put(strategy, new ClassValue<>() {
+				@Override
+				protected ProxyTemplate computeValue(Class<?> interfaceType) {
+					return generateTemplate(interfaceType, strategy);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Like {@link #TEMPLATES}, for {@link #generateMulticast multicast} proxies, by number of targets.
+	 */
+	private static final ClassValue<Map<Integer, ProxyTemplate>> MULTICAST_TEMPLATES = new ClassValue<>() {
+		@Override
+		protected Map<Integer, ProxyTemplate> computeValue(Class<?> interfaceType) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	private final GeneratedClassLoader classLoader;
+	private final ProxyStrategy strategy;
+
+	/**
+	 * For the field strategies, all proxies for an interface share one class.
+	 */
+	private final Map<Class<?>, FieldProxyClass> fieldProxyClasses = new ConcurrentHashMap<>();
+
+	/**
+	 * All proxy classes generated by this factory are defined by a single class loader,
+	 * so they can be unloaded together once the factory and its proxies are unreachable.
+	 */
+	public ProxyFactory() {
+		this(ProxyStrategy.INDY);
+	}
+
+	public ProxyFactory(ProxyStrategy strategy) {
+		this(new GeneratedClassLoader(), strategy);
+	}
+
+	ProxyFactory(GeneratedClassLoader classLoader, ProxyStrategy strategy) {
+		this.classLoader = classLoader;
+		this.strategy = strategy;
+	}
 
 	public record ProxyInfo<T> (
 		Class<T> interfaceType,
@@ -59,70 +133,389 @@ public class ProxyFactory {
 	){}
 
 	/**
-	 * The proxies we generate are optimized for run-time performance over generation efficiency.
-	 * One result of this is that every proxy object requires generating and loading its on class,
-	 * so they are expensive to create.
+	 * @param bytes a class file to be defined as a hidden class.
+	 *              For {@link ProxyStrategy#INDY}, the class data must be its {@link MutableCallSite}.
+	 *              For the field strategies, it is instead defined as a class named {@link #fieldProxyClassName}.
+	 * @param referencedTypes the types the class refers to, which must be {@link GeneratedClassLoader#register registered}
+	 */
+	private record ProxyTemplate(byte[] bytes, Set<Class<?>> referencedTypes) { }
+
+	/**
+	 * @param constructor of type <code>()Object</code>
+	 * @param target the field holding the proxy's target
+	 */
+	private record FieldProxyClass(MethodHandle constructor, VarHandle target) { }
+
+	/**
+	 * By default, the proxies we generate are optimized for run-time performance over generation efficiency.
+	 * One result of this is that every proxy object requires loading its own class,
+	 * so they are expensive to create. See {@link ProxyStrategy} for alternatives.
 	 * The caller of this method should make an effort to reuse the resulting objects as much as possible.
+	 * <p>
+	 * This defines the proxy class in a class loader of its own.
+	 * To generate many proxies, use {@link #generate} instead.
 	 */
 	public static <T> ProxyInfo<T> generateFor(Class<T> interfaceType) {
+		return new ProxyFactory().generate(interfaceType);
+	}
+
+	/**
+	 * Like {@link #generateFor}, but defines the proxy class in this factory's class loader.
+	 */
+	public <T> ProxyInfo<T> generate(Class<T> interfaceType) {
 		if (!interfaceType.isInterface()) {
 			throw new IllegalArgumentException("Only interfaces can be proxied; cannot proxy " + interfaceType);
 		}
 
-		int callSiteNum = numCallSites.incrementAndGet();
-		String methodName = "callSite+ " + callSiteNum;
-		MutableCallSite callSite = newCallSite(MethodType.methodType(interfaceType));
-		callSites.put(methodName, callSite);
+		ProxyTemplate template = TEMPLATES.get(strategy).get(interfaceType);
+		template.referencedTypes().forEach(classLoader::register);
+		if (strategy == ProxyStrategy.INDY) {
+			MutableCallSite callSite = newCallSite(MethodType.methodType(interfaceType));
+			T proxy = interfaceType.cast(instantiate(classLoader.defineHidden(template.bytes(), callSite).lookupClass()));
+			return new ProxyInfo<>(interfaceType, proxy, new IndySetter<>(interfaceType, callSite));
+		} else {
+			AtomicBoolean alreadySet = new AtomicBoolean(false);
+			FieldProxyClass proxyClass = fieldProxyClasses.computeIfAbsent(interfaceType, __ -> defineFieldProxyClass(interfaceType, template));
+			T proxy;
+			try {
+				proxy = interfaceType.cast((Object) proxyClass.constructor().invokeExact());
+			} catch (Throwable e) {
+				throw new AssertionError("Should be able to instantiate the generated class", e);
+			}
+			VarHandle target = proxyClass.target();
+			boolean isVolatile = (strategy == ProxyStrategy.VOLATILE_FIELD);
+			return new ProxyInfo<>(
+				interfaceType,
+				proxy,
+				(T newValue) -> {
+					if (alreadySet.getAndSet(true)) {
+						throw new IllegalStateException("Already set!");
+					} else if (isVolatile) {
+						target.setVolatile(proxy, newValue);
+					} else {
+						target.setRelease(proxy, newValue);
+					}
+				}
+			);
+		}
+	}
 
-		ClassWriter cw = new ClassWriter(COMPUTE_MAXS | COMPUTE_FRAMES);
-		cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL, "NALBIND_PROXY", null, getInternalName(Object.class), new String[]{getInternalName(interfaceType)});
+	/**
+	 * Sets the target of each of <code>proxies</code> to the corresponding element of <code>targets</code>,
+	 * like calling each one's {@link ProxyInfo#setter setter}, except that {@link ProxyStrategy#INDY} call sites
+	 * are all retargeted first, and then {@link MutableCallSite#syncAll synced} together.
+	 *
+	 * @throws IllegalStateException if any of the proxies has already been set,
+	 *                               in which case those before it are set, and the rest are not
+	 */
+	public static void setAll(List<? extends ProxyInfo<?>> proxies, List<?> targets) {
+		if (proxies.size() != targets.size()) {
+			throw new IllegalArgumentException("Expected " + proxies.size() + " targets; got " + targets.size());
+		}
+		MutableCallSite[] callSites = new MutableCallSite[proxies.size()];
+		int numCallSites = 0;
+		try {
+			for (int i = 0; i < proxies.size(); i++) {
+				var proxy = proxies.get(i);
+				if (proxy.setter() instanceof IndySetter<?> setter) {
+					setter.setTarget(targets.get(i));
+					callSites[numCallSites++] = setter.callSite;
+				} else {
+					set(proxy, targets.get(i));
+				}
+			}
+		} finally {
+			syncAll(Arrays.copyOf(callSites, numCallSites));
+		}
+	}
+
+	private static <T> void set(ProxyInfo<T> proxy, Object target) {
+		proxy.setter().accept(proxy.interfaceType().cast(target));
+	}
+
+	/**
+	 * The setter of a {@link ProxyStrategy#INDY} proxy, which {@link #setAll} can recognize,
+	 * to sync many call sites at once.
+	 */
+	private static final class IndySetter<T> implements Consumer<T> {
+		final Class<T> interfaceType;
+		final MutableCallSite callSite;
+		final AtomicBoolean alreadySet = new AtomicBoolean(false);
+
+		IndySetter(Class<T> interfaceType, MutableCallSite callSite) {
+			this.interfaceType = interfaceType;
+			this.callSite = callSite;
+		}
+
+		@Override
+		public void accept(T newValue) {
+			setTarget(newValue);
+			syncAll(new MutableCallSite[]{callSite});
+		}
+
+		/**
+		 * Without syncing, so other threads might not see the new target until the call site is synced.
+		 */
+		void setTarget(Object newValue) {
+			if (alreadySet.getAndSet(true)) {
+				throw new IllegalStateException("Already set!");
+			} else {
+				callSite.setTarget(constant(interfaceType, interfaceType.cast(newValue)));
+			}
+		}
+	}
+
+	/**
+	 * Generates a proxy that calls <code>supplier</code> the first time one of its methods is called,
+	 * and forwards all calls to the resulting object.
+	 * <p>
+	 * Regardless of this factory's {@link ProxyStrategy}, these use {@link ProxyStrategy#INDY},
+	 * whose call site can run arbitrary code to find its target.
+	 *
+	 * @param supplier must be thread-safe, and must return the same object every time,
+	 *                 because threads racing to make the first call may each call it
+	 */
+	public <T> T generateLazy(Class<T> interfaceType, Supplier<? extends T> supplier) {
+		if (!interfaceType.isInterface()) {
+			throw new IllegalArgumentException("Only interfaces can be proxied; cannot proxy " + interfaceType);
+		}
+		ProxyTemplate template = TEMPLATES.get(ProxyStrategy.INDY).get(interfaceType);
+		template.referencedTypes().forEach(classLoader::register);
+		MutableCallSite callSite = new MutableCallSite(methodType(interfaceType));
+		callSite.setTarget(insertArguments(RESOLVE_LAZILY, 0, callSite, supplier).asType(callSite.type()));
+		return interfaceType.cast(instantiate(classLoader.defineHidden(template.bytes(), callSite).lookupClass()));
+	}
+
+	/**
+	 * The initial target of a {@link #generateLazy lazy proxy}'s call site.
+	 * Once the object is known, the call site is relinked to return it directly.
+	 * Threads that still see this target get the same object from <code>supplier</code>,
+	 * so there's no need to {@link MutableCallSite#syncAll sync}.
+	 */
+	private static Object resolveLazily(MutableCallSite callSite, Supplier<?> supplier) {
+		Object result = supplier.get();
+		callSite.setTarget(constant(callSite.type().returnType(), result));
+		return result;
+	}
+
+	/**
+	 * Generates an object that implements each method of <code>interfaceType</code> by calling it on every one of
+	 * <code>targets</code> in turn, as a loop over them would, except that each target gets a call site of its own.
+	 * Each call site sees only one receiver, and the receivers are constants, so the JIT can inline the calls,
+	 * where a loop's single call site would become megamorphic.
+	 * <p>
+	 * If a target throws, the remaining targets are not called.
+	 *
+	 * @param interfaceType whose abstract methods all return <code>void</code>
+	 */
+	public <T> T generateMulticast(Class<T> interfaceType, List<? extends T> targets) {
+		checkMulticastInterface(interfaceType);
+		List<?> chunks = targets;
+		while (chunks.size() > MAX_MULTICAST_TARGETS) {
+			// Keep each method small enough to JIT-compile, at the cost of a level of indirection per chunk
+			List<Object> composites = new ArrayList<>();
+			for (int i = 0; i < chunks.size(); i += MAX_MULTICAST_TARGETS) {
+				composites.add(defineMulticast(interfaceType, chunks.subList(i, Math.min(i + MAX_MULTICAST_TARGETS, chunks.size()))));
+			}
+			chunks = composites;
+		}
+		return interfaceType.cast(defineMulticast(interfaceType, chunks));
+	}
+
+	/**
+	 * @throws IllegalArgumentException if {@link #generateMulticast} can't implement <code>interfaceType</code>
+	 */
+	public static void checkMulticastInterface(Class<?> interfaceType) {
+		if (!interfaceType.isInterface()) {
+			throw new IllegalArgumentException("Only interfaces can be multicast; cannot multicast " + interfaceType);
+		}
+		for (Method m: multicastMethods(interfaceType)) {
+			if (isAbstract(m.getModifiers()) && m.getReturnType() != void.class) {
+				throw new IllegalArgumentException("Cannot multicast method with a return value: " + m);
+			}
+		}
+	}
 
+	private Object defineMulticast(Class<?> interfaceType, List<?> targets) {
+		ProxyTemplate template = MULTICAST_TEMPLATES.get(interfaceType).computeIfAbsent(targets.size(), n -> generateMulticastTemplate(interfaceType, n));
+		template.referencedTypes().forEach(classLoader::register);
+		return instantiate(classLoader.defineHidden(template.bytes(), List.copyOf(targets)).lookupClass());
+	}
+
+	/**
+	 * The class data is the list of targets, each of which is loaded as a constant.
+	 */
+	private static ProxyTemplate generateMulticastTemplate(Class<?> interfaceType, int numTargets) {
+		LOGGER.debug("Generating multicast template for {} with {} targets", interfaceType.getSimpleName(), numTargets);
+		ClassWriter cw = new ClassWriter(COMPUTE_MAXS | COMPUTE_FRAMES);
+		// Dynamic constants need Java 11
+		cw.visit(V11, ACC_PUBLIC | ACC_FINAL, PROXY_CLASS_NAME, null, getInternalName(Object.class), new String[]{getInternalName(interfaceType)});
 		generateConstructor(cw);
-		HashSet<Class<?>> interfacesAlreadySeen = new HashSet<>();
-		generateDelegatingMethods(interfaceType, interfacesAlreadySeen, methodName, cw);
 
-		cw.visitEnd();
+		Handle classDataAt = new Handle(
+			Opcodes.H_INVOKESTATIC,
+			getInternalName(MethodHandles.class),
+			"classDataAt",
+			methodType(Object.class, MethodHandles.Lookup.class, String.class, Class.class, int.class).toMethodDescriptorString(),
+			false
+		);
+		ConstantDynamic[] targets = new ConstantDynamic[numTargets];
+		for (int i = 0; i < numTargets; i++) {
+			targets[i] = new ConstantDynamic(DEFAULT_NAME, getDescriptor(interfaceType), classDataAt, i);
+		}
 
-		T proxy = interfaceType.cast(instantiate(loadProxyClass(cw)));
-		AtomicBoolean alreadySet = new AtomicBoolean(false);
-		return new ProxyInfo<>(
-			interfaceType,
-			proxy,
-			(T newValue) -> {
-				if (alreadySet.getAndSet(true)) {
-					throw new IllegalStateException("Already set!");
-				} else {
-					callSite.setTarget(constant(interfaceType, newValue));
-					syncAll(new MutableCallSite[]{callSite});
+		Set<Class<?>> referencedTypes = new HashSet<>();
+		referencedTypes.add(interfaceType);
+		for (Method m: multicastMethods(interfaceType)) {
+			if (m.getReturnType() != void.class) {
+				// A default method, which calls the multicast ones
+				continue;
+			}
+			referencedTypes.add(m.getDeclaringClass());
+			referencedTypes.addAll(asList(m.getParameterTypes()));
+			MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, m.getName(), getMethodDescriptor(m), null, null);
+			mv.visitCode();
+			for (var target: targets) {
+				mv.visitLdcInsn(target);
+				int localSlot = 1;
+				for (Class<?> pt: m.getParameterTypes()) {
+					mv.visitVarInsn(getType(pt).getOpcode(ILOAD), localSlot);
+					localSlot += getType(pt).getSize();
 				}
+				invoke(m, mv);
 			}
-		);
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		cw.visitEnd();
+		return new ProxyTemplate(cw.toByteArray(), Set.copyOf(referencedTypes));
+	}
+
+	/**
+	 * @return the instance methods of <code>interfaceType</code> and its superinterfaces, once per signature,
+	 * with those of subinterfaces taking precedence
+	 */
+	private static Collection<Method> multicastMethods(Class<?> interfaceType) {
+		Map<String, Method> result = new LinkedHashMap<>();
+		addMulticastMethods(interfaceType, result);
+		return result.values();
+	}
+
+	private static void addMulticastMethods(Class<?> interfaceType, Map<String, Method> result) {
+		for (Method m: interfaceType.getDeclaredMethods()) {
+			if (!isStatic(m.getModifiers()) && !isPrivate(m.getModifiers()) && !m.isSynthetic()) {
+				result.putIfAbsent(m.getName() + getMethodDescriptor(m), m);
+			}
+		}
+		for (Class<?> s: interfaceType.getInterfaces()) {
+			addMulticastMethods(s, result);
+		}
+	}
+
+	/**
+	 * Unlike hidden classes, named classes can be included in a class data sharing archive;
+	 * see {@link InjectorOptions#exportGeneratedClasses}.
+	 */
+	private FieldProxyClass defineFieldProxyClass(Class<?> interfaceType, ProxyTemplate template) {
+		String name = fieldProxyClassName(interfaceType, strategy).replace('/', '.');
+		MethodHandles.Lookup lookup;
+		if (classLoader.isDefined(name)) {
+			// An interface of the same name from another class loader.
+			// The hidden class gets a name of its own, and its class data is unused, but can't be null.
+			lookup = classLoader.defineHidden(template.bytes(), interfaceType);
+		} else {
+			Class<?> proxyClass = classLoader.define(name, template.bytes());
+			ProxyFactory.class.getModule().addReads(proxyClass.getModule());
+			try {
+				lookup = privateLookupIn(proxyClass, lookup());
+			} catch (IllegalAccessException e) {
+				throw new AssertionError("Should be able to access classes in our own loader", e);
+			}
+		}
+		try {
+			return new FieldProxyClass(
+				lookup.findConstructor(lookup.lookupClass(), methodType(void.class)).asType(methodType(Object.class)),
+				lookup.findVarHandle(lookup.lookupClass(), TARGET_NAME, interfaceType));
+		} catch (NoSuchMethodException | NoSuchFieldException | IllegalAccessException e) {
+			throw new AssertionError("Generated class should have the expected members", e);
+		}
 	}
 
-	private static <T> void generateDelegatingMethods(Class<T> interfaceType, HashSet<Class<?>> alreadySeen, String methodName, ClassWriter cw) {
+	/**
+	 * Field proxy classes depend only on the interface and strategy, so their names do too,
+	 * and a class data sharing archive recognizes them from one run to the next.
+	 *
+	 * @return an internal name
+	 */
+	private static String fieldProxyClassName(Class<?> interfaceType, ProxyStrategy strategy) {
+		return "nalbind/proxy/" + strategy.name().toLowerCase(Locale.ROOT) + "/" + getInternalName(interfaceType);
+	}
+
+	private static ProxyTemplate generateTemplate(Class<?> interfaceType, ProxyStrategy strategy) {
+		LOGGER.debug("Generating {} proxy template for {}", strategy, interfaceType.getSimpleName());
+		String className = (strategy == ProxyStrategy.INDY) ? PROXY_CLASS_NAME : fieldProxyClassName(interfaceType, strategy);
+		ClassWriter cw = new ClassWriter(COMPUTE_MAXS | COMPUTE_FRAMES);
+		cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL, className, null, getInternalName(Object.class), new String[]{getInternalName(interfaceType)});
+
+		switch (strategy) {
+			case INDY -> { }
+			case VOLATILE_FIELD -> cw.visitField(ACC_PRIVATE | ACC_VOLATILE, TARGET_NAME, getDescriptor(interfaceType), null, null).visitEnd();
+			case FENCED_FIELD -> cw.visitField(ACC_PRIVATE, TARGET_NAME, getDescriptor(interfaceType), null, null).visitEnd();
+		}
+		generateConstructor(cw);
+		Set<Class<?>> referencedTypes = new HashSet<>();
+		generateDelegatingMethods(className, interfaceType, interfaceType, strategy, new HashSet<>(), referencedTypes, cw);
+
+		cw.visitEnd();
+		return new ProxyTemplate(cw.toByteArray(), Set.copyOf(referencedTypes));
+	}
+
+	/**
+	 * @param className the internal name of the proxy class
+	 * @param proxiedType the interface implemented by the proxy
+	 * @param interfaceType <code>proxiedType</code> or one of its superinterfaces
+	 */
+	private static void generateDelegatingMethods(
+		String className,
+		Class<?> proxiedType,
+		Class<?> interfaceType,
+		ProxyStrategy strategy,
+		Set<Class<?>> alreadySeen,
+		Set<Class<?>> referencedTypes,
+		ClassWriter cw
+	) {
 		if (alreadySeen.add(interfaceType)) {
 			LOGGER.trace("generateDelegatingMethods for {}", interfaceType);
 		} else {
 			return;
 		}
 
+		referencedTypes.add(interfaceType);
 		for (Class<?> s: interfaceType.getInterfaces()) {
-			generateDelegatingMethods(s, alreadySeen, methodName, cw);
+			generateDelegatingMethods(className, proxiedType, s, strategy, alreadySeen, referencedTypes, cw);
 		}
 
 		for (Method m: interfaceType.getDeclaredMethods()) {
-			generateDelegatingMethod(m, interfaceType, methodName, cw);
+			referencedTypes.addAll(asList(m.getParameterTypes()));
+			referencedTypes.add(m.getReturnType());
+			generateDelegatingMethod(className, m, proxiedType, strategy, cw);
 		}
 	}
 
-	private static <T> void generateDelegatingMethod(Method m, Class<T> targetType, String targetMethodName, ClassWriter cw) {
+	private static void generateDelegatingMethod(String className, Method m, Class<?> proxiedType, ProxyStrategy strategy, ClassWriter cw) {
 		LOGGER.trace("generateDelegatingMethod {}", m);
 
 		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, m.getName(), Type.getMethodDescriptor(m), null, null);
 		mv.visitCode();
 
-		// Push delegation target object
-		getTarget(targetType, mv, targetMethodName);
+		// Push delegation target object.
+		// The call site's type is that of the proxied interface, even for methods of superinterfaces.
+		switch (strategy) {
+			case INDY -> getTarget(proxiedType, mv, TARGET_NAME);
+			case VOLATILE_FIELD, FENCED_FIELD -> getTargetField(className, proxiedType, mv);
+		}
 
 		// Push args
 		int localSlot = 1;
@@ -154,13 +547,8 @@ public class ProxyFactory {
 		}
 	}
 
-	private static Constructor<?> loadProxyClass(ClassWriter cw) {
-		return new CustomClassLoader(ProxyFactory.class.getClassLoader())
-			.loadThemBytes("NALBIND_PROXY", cw.toByteArray())
-			.getConstructors()[0];
-	}
-
-	private static Object instantiate(Constructor<?> ctor) {
+	private static Object instantiate(Class<?> proxyClass) {
+		Constructor<?> ctor = proxyClass.getConstructors()[0];
 		try {
 			return ctor.newInstance();
 		} catch (InstantiationException | IllegalAccessException | VerifyError | InvocationTargetException e) {
@@ -197,6 +585,16 @@ public class ProxyFactory {
 		mv.visitInvokeDynamicInsn(methodName, "()" + getDescriptor(interfaceType), bootstrapMethodHandle);
 	}
 
+	private static void getTargetField(String className, Class<?> proxiedType, MethodVisitor mv) {
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitFieldInsn(GETFIELD, className, TARGET_NAME, getDescriptor(proxiedType));
+		Label isSet = new Label();
+		mv.visitInsn(DUP);
+		mv.visitJumpInsn(IFNONNULL, isSet);
+		mv.visitMethodInsn(INVOKESTATIC, getInternalName(ProxyFactory.class), "notYetSet", "()V", false);
+		mv.visitLabel(isSet);
+	}
+
 	private static void generateConstructor(ClassWriter cw) {
 		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
 		mv.visitCode();
@@ -221,20 +619,31 @@ public class ProxyFactory {
 		throw new IllegalStateException("Cannot invoke method on object that is not fully constructed. Use the @Now annotation on your method's parameter to indicate that you need to call a method on it");
 	}
 
+	/**
+	 * Each proxy class is a hidden class whose class data is its call site.
+	 */
 	@SuppressWarnings("unused")
-	public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type) {
-		return requireNonNull(callSites.remove(name), ()->"CallSite not found: \"" + name + "\"");
+	public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type) throws IllegalAccessException {
+		return requireNonNull(classData(caller, DEFAULT_NAME, MutableCallSite.class), () -> "CallSite not found for " + caller.lookupClass());
 	}
 
-	private static final class CustomClassLoader extends ClassLoader {
-		CustomClassLoader(ClassLoader parentClassLoader) {
-			super(parentClassLoader);
-		}
+	private static final MethodHandle RESOLVE_LAZILY;
 
-		public Class<?> loadThemBytes(String dottyName, byte[] b) {
-			return defineClass(dottyName, b, 0, b.length);
+	static {
+		try {
+			RESOLVE_LAZILY = lookup().findStatic(ProxyFactory.class, "resolveLazily",
+				methodType(Object.class, MutableCallSite.class, Supplier.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new AssertionError("Method should be accessible", e);
 		}
 	}
 
+	/**
+	 * Beyond this, {@link #generateMulticast} builds a composite of composites.
+	 */
+	private static final int MAX_MULTICAST_TARGETS = 128;
+
+	private static final String PROXY_CLASS_NAME = "NALBIND_PROXY";
+	private static final String TARGET_NAME = "target";
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyFactory.class);
 }
@@ -0,0 +1,35 @@
+package org.elasticsearch.nalbind.injector;
+
+/**
+ * How a proxy generated by {@link ProxyFactory} forwards calls to its target.
+ * <p>
+ * All strategies generate a class per interface that implements each method by delegating to the target,
+ * and all throw {@link IllegalStateException} if called before the target is set.
+ * They differ in where the target is stored, which trades the cost of creating and resolving proxies
+ * against the cost of calling through them.
+ */
+public enum ProxyStrategy {
+	/**
+	 * The target is bound into an <code>invokedynamic</code> call site, so once resolved,
+	 * the JIT compiler treats it as a constant and calls through the proxy cost nothing.
+	 * In exchange, each proxy needs a class of its own, and resolving it invalidates
+	 * any compiled code that has already linked to the call site.
+	 */
+	INDY,
+
+	/**
+	 * The target is stored in a volatile field.
+	 * Proxies for the same interface share a class, and resolving one is a single volatile write,
+	 * but every call performs a volatile read.
+	 */
+	VOLATILE_FIELD,
+
+	/**
+	 * The target is stored in a plain field, written with release semantics.
+	 * Calls are as cheap as an ordinary field read and null check.
+	 * Other threads are guaranteed to see the target only if they obtain the proxy through
+	 * a happens-before edge established after the injector finishes, such as safe publication
+	 * of the injector itself, which is how objects from an injector are normally shared.
+	 */
+	FENCED_FIELD,
+}
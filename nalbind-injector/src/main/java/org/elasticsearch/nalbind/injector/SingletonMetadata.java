@@ -0,0 +1,164 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import org.elasticsearch.nalbind.api.Inject;
+import org.elasticsearch.nalbind.api.Injected;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+
+/**
+ * Everything the injector needs to know about a class in order to compute its specs.
+ *
+ * @param constructorSpec null if the class has no suitable constructor
+ * @param supertypes the types for which the class should be registered as an alias,
+ *                   in the order in which they should be registered
+ */
+record SingletonMetadata(
+	ConstructorSpec constructorSpec,
+	List<Class<?>> supertypes
+) {
+	/**
+	 * Metadata is the same no matter how it was obtained, so it can be shared by all injectors.
+	 */
+	private static final ClassValue<AtomicReference<SingletonMetadata>> CACHE = new ClassValue<>() {
+		@Override
+		protected AtomicReference<SingletonMetadata> computeValue(Class<?> type) {
+			return new AtomicReference<>();
+		}
+	};
+
+	/**
+	 * @return the cached metadata for <code>c</code> if any; otherwise, metadata from
+	 * <code>index</code> if it has any, or else from its {@link ClassFileReader class file},
+	 * or as a last resort, from {@link #reflect reflection}
+	 */
+	static SingletonMetadata of(Class<?> c, InjectionIndex index) {
+		var ref = CACHE.get(c);
+		var result = ref.get();
+		if (result == null) {
+			result = index.metadataFor(c);
+			if (result == null) {
+				result = ClassFileReader.read(c);
+			}
+			if (result == null) {
+				result = reflect(c);
+			}
+			// Racing threads compute equivalent results, so it doesn't matter who wins
+			ref.set(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Supplies metadata obtained some other way, such as from a {@link PlanCache},
+	 * unless some is already cached.
+	 */
+	static void remember(Class<?> c, SingletonMetadata metadata) {
+		CACHE.get(c).compareAndSet(null, metadata);
+	}
+
+	/**
+	 * Gathers the metadata using reflection.
+	 */
+	static SingletonMetadata reflect(Class<?> c) {
+		Constructor<?> constructor = getSuitableConstructorIfAny(c);
+		if (constructor == null) {
+			return new SingletonMetadata(null, List.of());
+		} else {
+			return new SingletonMetadata(
+				new ConstructorSpec(constructor, getReportInjectedMethods(c)),
+				supertypes(c));
+		}
+	}
+
+	private static Constructor<?> getSuitableConstructorIfAny(Class<?> type) {
+		Constructor<?>[] constructors = type.getDeclaredConstructors();
+		if (constructors.length == 1) {
+			return constructors[0];
+		} else {
+			var injectConstructors = Stream.of(constructors)
+				.filter(c -> c.isAnnotationPresent(Inject.class))
+				.toList();
+			if (injectConstructors.size() == 1) {
+				return injectConstructors.getFirst();
+			} else {
+				return null;
+			}
+		}
+	}
+
+	private static List<Method> getReportInjectedMethods(Class<?> givenClass) {
+		List<Method> result = new ArrayList<>();
+		for (var c = givenClass; c != Object.class; c = c.getSuperclass()) {
+			for (var m: c.getDeclaredMethods()) {
+				if (m.isAnnotationPresent(Injected.class)) {
+					checkValidInjectedMethod(m);
+					result.add(m);
+				}
+			}
+		}
+		return result;
+	}
+
+	static void checkValidInjectedMethod(Method method) {
+		var pts = method.getParameterTypes();
+		if (pts.length != 1) {
+			throw new IllegalStateException("Expected @" + Injected.class.getSimpleName() + " method to have one parameter: " + method);
+		}
+		var pt = pts[0];
+		if (pt.isInterface() && !Collection.class.equals(pt)) {
+			try {
+				ProxyFactory.checkMulticastInterface(pt);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalStateException("Expected @" + Injected.class.getSimpleName() + " method parameter to be a Collection or a listener interface: " + method, e);
+			}
+		} else if (!Collection.class.equals(pt)) {
+			// TODO: It should also a collection of the right type of elements
+			throw new IllegalStateException("Expected @" + Injected.class.getSimpleName() + " method parameter to be a Collection or a listener interface: " + method);
+		}
+	}
+
+	/**
+	 * @return the superclasses of <code>c</code> and all interfaces they implement, excluding {@link Object}.
+	 */
+	static List<Class<?>> supertypes(Class<?> c) {
+		Set<Class<?>> result = new LinkedHashSet<>();
+		addSuperinterfaces(c, result);
+		for (Class<?> superclass = c.getSuperclass(); superclass != Object.class; superclass = superclass.getSuperclass()) {
+			result.add(superclass);
+			addSuperinterfaces(superclass, result);
+		}
+		return List.copyOf(result);
+	}
+
+	/**
+	 * Adds the superinterfaces of <code>classToScan</code> depth-first, in declaration order.
+	 */
+	private static void addSuperinterfaces(Class<?> classToScan, Set<Class<?>> result) {
+		Deque<Class<?>> stack = new ArrayDeque<>();
+		pushInterfaces(classToScan, stack);
+		while (!stack.isEmpty()) {
+			var i = stack.pop();
+			// If it's already there, so are its superinterfaces
+			if (result.add(i)) {
+				pushInterfaces(i, stack);
+			}
+		}
+	}
+
+	private static void pushInterfaces(Class<?> c, Deque<Class<?>> stack) {
+		var interfaces = c.getInterfaces();
+		for (int j = interfaces.length - 1; j >= 0; j--) {
+			stack.push(interfaces[j]);
+		}
+	}
+}
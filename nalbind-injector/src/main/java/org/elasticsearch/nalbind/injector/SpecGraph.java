@@ -0,0 +1,156 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.elasticsearch.nalbind.injector.spec.AliasSpec;
+import org.elasticsearch.nalbind.injector.spec.AmbiguousSpec;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.InjectionSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The specs computed by the injector, along with their dependency graph,
+ * with each type identified by a dense <code>int</code> id,
+ * so that algorithms over the graph can use arrays instead of maps and sets keyed by {@link Class}.
+ * <p>
+ * Ids are assigned by a {@link Builder} as types are encountered during spec computation.
+ * The edges are in compressed sparse row form: those of type <code>id</code> occupy
+ * {@link #edgeTargets} from <code>edgeStart[id]</code> up to <code>edgeStart[id + 1]</code>.
+ * A {@link ConstructorSpec} has an edge to each parameter type, in parameter order,
+ * and an {@link AliasSpec} has one edge, to its subtype.
+ *
+ * @param types the type with each id
+ * @param specs the spec for each id, or null if the type has none
+ * @param edgeNow for each edge, whether it's a <code>@Now</code> parameter
+ * @param specOrder the ids that have specs, in the order in which their specs were first registered
+ */
+record SpecGraph(
+	Class<?>[] types,
+	InjectionSpec[] specs,
+	int[] edgeStart,
+	int[] edgeTargets,
+	boolean[] edgeNow,
+	int[] specOrder
+) {
+	int numTypes() {
+		return types.length;
+	}
+
+	/**
+	 * @return the types that have specs, in {@link #specOrder}
+	 */
+	List<Class<?>> specifiedTypes() {
+		List<Class<?>> result = new ArrayList<>(specOrder.length);
+		for (int id: specOrder) {
+			result.add(types[id]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new map of the specs by type, in {@link #specOrder}
+	 */
+	Map<Class<?>, InjectionSpec> specsByClass() {
+		Map<Class<?>, InjectionSpec> result = new LinkedHashMap<>();
+		for (int id: specOrder) {
+			result.put(types[id], specs[id]);
+		}
+		return result;
+	}
+
+	static final class Builder {
+		private static final int[] NO_EDGES = new int[0];
+
+		private final Map<Class<?>, Integer> ids = new HashMap<>();
+		private final List<Class<?>> types = new ArrayList<>();
+		private final List<InjectionSpec> specs = new ArrayList<>();
+		private final List<int[]> edges = new ArrayList<>();
+		private int[] specOrder = new int[16];
+		private int numSpecs = 0;
+
+		/**
+		 * @return the id of <code>type</code>, assigning it one if it doesn't have one yet
+		 */
+		int id(Class<?> type) {
+			Integer result = ids.get(type);
+			if (result == null) {
+				result = types.size();
+				ids.put(type, result);
+				types.add(type);
+				specs.add(null);
+				edges.add(NO_EDGES);
+			}
+			return result;
+		}
+
+		/**
+		 * @return the spec for <code>id</code>, or null if none has been registered
+		 */
+		InjectionSpec spec(int id) {
+			return specs.get(id);
+		}
+
+		/**
+		 * Registers the spec for <code>id</code>.
+		 * If it already has a different one, the type becomes ambiguous.
+		 *
+		 * @param edgeTargets the ids of the spec's parameter types, or of its subtype if it's an {@link AliasSpec}
+		 */
+		void register(int id, InjectionSpec spec, int[] edgeTargets) {
+			var existing = specs.get(id);
+			if (existing == null) {
+				LOGGER.trace("Register spec: {}", spec);
+				if (numSpecs == specOrder.length) {
+					specOrder = Arrays.copyOf(specOrder, 2 * numSpecs);
+				}
+				specOrder[numSpecs++] = id;
+				specs.set(id, spec);
+				edges.set(id, edgeTargets);
+			} else if (existing.equals(spec)) {
+				LOGGER.trace("Register spec: {}", spec);
+			} else {
+				AmbiguousSpec ambiguousSpec = new AmbiguousSpec(spec.requestedType(), spec, existing);
+				LOGGER.trace("Ambiguity discovered: {}", ambiguousSpec);
+				specs.set(id, ambiguousSpec);
+				edges.set(id, NO_EDGES);
+			}
+		}
+
+		SpecGraph build() {
+			int numTypes = types.size();
+			int[] edgeStart = new int[numTypes + 1];
+			int numEdges = 0;
+			for (int id = 0; id < numTypes; id++) {
+				edgeStart[id] = numEdges;
+				numEdges += edges.get(id).length;
+			}
+			edgeStart[numTypes] = numEdges;
+			int[] edgeTargets = new int[numEdges];
+			boolean[] edgeNow = new boolean[numEdges];
+			for (int id = 0; id < numTypes; id++) {
+				int[] targets = edges.get(id);
+				System.arraycopy(targets, 0, edgeTargets, edgeStart[id], targets.length);
+				if (specs.get(id) instanceof ConstructorSpec c) {
+					var parameters = c.parameters();
+					for (int i = 0; i < targets.length; i++) {
+						edgeNow[edgeStart[id] + i] = parameters.get(i).now();
+					}
+				}
+			}
+			return new SpecGraph(
+				types.toArray(new Class<?>[numTypes]),
+				specs.toArray(new InjectionSpec[numTypes]),
+				edgeStart,
+				edgeTargets,
+				edgeNow,
+				Arrays.copyOf(specOrder, numSpecs));
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SpecGraph.class);
+}
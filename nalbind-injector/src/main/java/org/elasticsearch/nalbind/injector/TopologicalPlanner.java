@@ -0,0 +1,243 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.elasticsearch.nalbind.injector.spec.AliasSpec;
+import org.elasticsearch.nalbind.injector.spec.AmbiguousSpec;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plans instantiation so that, wherever possible, each object is constructed after everything it depends on,
+ * whether or not the dependency is <code>@Now</code>.
+ * <p>
+ * That's impossible only within a strongly connected component of the dependency graph,
+ * so only there do we leave non-<code>@Now</code> dependencies to be satisfied by proxies.
+ * The result is that most objects receive their real dependencies,
+ * and proxies are created only for the types that are needed before they're available.
+ *
+ * @see InjectorOptions#proxiesOnlyForCycles
+ */
+final class TopologicalPlanner {
+	private final SpecGraph graph;
+	private final Predicate<Class<?>> inherited;
+	private final int[] componentById;
+	private final List<UnambiguousSpec> plan = new ArrayList<>();
+
+	/**
+	 * For each type id, the ids of the aliases for which it's the subtype.
+	 */
+	private final List<int[]> aliasesBySubtype;
+
+	/**
+	 * Whether each type id's spec has been planned, or is being planned.
+	 */
+	private final boolean[] alreadyPlanned;
+
+	/**
+	 * Whether each type id's spec has been added to {@link #plan}.
+	 */
+	private final boolean[] available;
+
+	/**
+	 * The depth-first search's own stack, which can't be deeper than the number of types.
+	 * For each type on the stack, we keep the next of its edges to consider.
+	 */
+	private final int[] stackIds;
+	private final int[] stackNextEdges;
+
+	private TopologicalPlanner(SpecGraph graph, Predicate<Class<?>> inherited) {
+		this.graph = graph;
+		this.inherited = inherited;
+		int numTypes = graph.numTypes();
+		this.alreadyPlanned = new boolean[numTypes];
+		this.available = new boolean[numTypes];
+		this.stackIds = new int[numTypes];
+		this.stackNextEdges = new int[numTypes];
+
+		int[] numAliases = new int[numTypes];
+		for (int id: graph.specOrder()) {
+			if (graph.specs()[id] instanceof AliasSpec) {
+				numAliases[graph.edgeTargets()[graph.edgeStart()[id]]]++;
+			}
+		}
+		this.aliasesBySubtype = new ArrayList<>(numTypes);
+		for (int id = 0; id < numTypes; id++) {
+			aliasesBySubtype.add((numAliases[id] == 0) ? NO_ALIASES : new int[numAliases[id]]);
+			numAliases[id] = 0;
+		}
+		for (int id: graph.specOrder()) {
+			if (graph.specs()[id] instanceof AliasSpec) {
+				int subtype = graph.edgeTargets()[graph.edgeStart()[id]];
+				aliasesBySubtype.get(subtype)[numAliases[subtype]++] = id;
+			}
+		}
+
+		// Tarjan's algorithm, run over all dependency edges between types
+		boolean[] allEdges = new boolean[graph.edgeTargets().length];
+		Arrays.fill(allEdges, true);
+		this.componentById = ComponentFinder.components(graph, allEdges);
+	}
+
+	/**
+	 * @param inherited which types that have no spec are nonetheless available,
+	 *                  from the parent of a {@link Injector#createChild child} injector
+	 * @return the {@link UnambiguousSpec} objects listed in execution order.
+	 * @throws IllegalStateException if there are cycles of <code>@Now</code> dependencies
+	 */
+	static List<UnambiguousSpec> instantiationPlan(SpecGraph graph, Predicate<Class<?>> inherited) {
+		LOGGER.trace("Constructing topological instantiation plan");
+		ComponentFinder.checkForNowCycles(graph);
+		var planner = new TopologicalPlanner(graph, inherited);
+		for (int id: graph.specOrder()) {
+			planner.plan(id);
+		}
+		LOGGER.trace("Instantiation plan: {}", planner.plan);
+		return planner.plan;
+	}
+
+	/**
+	 * @return the types that some constructor in <code>plan</code> needs before they have been instantiated
+	 * @throws IllegalStateException if such a type is a <code>@Now</code> parameter, or can't be proxied
+	 */
+	static List<Class<?>> proxiedTypes(List<UnambiguousSpec> plan, Predicate<Class<?>> inherited) {
+		Set<Class<?>> available = new HashSet<>();
+		Set<Class<?>> planned = new HashSet<>();
+		plan.forEach(spec -> planned.add(spec.requestedType()));
+		Set<Class<?>> result = new LinkedHashSet<>();
+		for (var spec: plan) {
+			switch (spec) {
+				case ConstructorSpec c -> {
+					for (var p: c.parameters()) {
+						if (!available.contains(p.type()) && (planned.contains(p.type()) || !inherited.test(p.type()))) {
+							if (p.now()) {
+								throw new IllegalStateException("Cycle of @Now dependencies involving " + c.requestedType().getName());
+							} else if (!p.type().isInterface()) {
+								throw new IllegalStateException("Cycle involving " + c.requestedType().getName()
+									+ " can't be broken with a proxy because " + p.type().getName() + " is not an interface");
+							}
+							result.add(p.type());
+						}
+					}
+					available.add(c.requestedType());
+				}
+				case AliasSpec a -> available.add(a.requestedType());
+			}
+		}
+		LOGGER.debug("Proxies needed for {} types", result.size());
+		return List.copyOf(result);
+	}
+
+	/**
+	 * Plans <code>root</code> depth-first, following <code>@Now</code> parameters, alias subtypes,
+	 * and parameters in other components.
+	 * Keeps its own stack rather than recursing, so it handles dependency chains of any length.
+	 */
+	private void plan(int root) {
+		if (!enter(root)) {
+			return;
+		}
+		var specs = graph.specs();
+		int[] edgeStart = graph.edgeStart();
+		int[] edgeTargets = graph.edgeTargets();
+		boolean[] edgeNow = graph.edgeNow();
+		stackIds[0] = root;
+		stackNextEdges[0] = edgeStart[root];
+		int depth = 1;
+		while (depth > 0) {
+			int id = stackIds[depth - 1];
+			int successor = -1;
+			if (specs[id] instanceof ConstructorSpec || specs[id] instanceof AliasSpec) {
+				boolean isAlias = specs[id] instanceof AliasSpec;
+				int edge = stackNextEdges[depth - 1];
+				while (edge < edgeStart[id + 1] && successor < 0) {
+					int target = edgeTargets[edge];
+					if (isAlias || edgeNow[edge] || componentById[id] != componentById[target]) {
+						LOGGER.trace("Recursing from {} into {}", graph.types()[id].getSimpleName(), graph.types()[target].getSimpleName());
+						if (enter(target)) {
+							successor = target;
+						}
+					} else {
+						LOGGER.trace("Deferring parameter {} of {} to break a cycle", graph.types()[target].getSimpleName(), specs[id]);
+					}
+					edge++;
+				}
+				stackNextEdges[depth - 1] = edge;
+			}
+			if (successor >= 0) {
+				stackIds[depth] = successor;
+				stackNextEdges[depth] = edgeStart[successor];
+				depth++;
+			} else {
+				depth--;
+				finish(id);
+			}
+		}
+	}
+
+	/**
+	 * @return true if <code>id</code> needs planning, in which case it's now marked as being planned
+	 */
+	private boolean enter(int id) {
+		if (graph.specs()[id] == null) {
+			Class<?> type = graph.types()[id];
+			if (inherited.test(type)) {
+				LOGGER.trace("Inheriting {}", type.getSimpleName());
+				return false;
+			}
+			throw new IllegalStateException("Cannot instantiate " + type);
+		}
+		if (alreadyPlanned[id]) {
+			return false;
+		}
+		alreadyPlanned[id] = true;
+		return true;
+	}
+
+	/**
+	 * Called once everything <code>id</code> needs has been planned, or is in progress
+	 */
+	private void finish(int id) {
+		switch (graph.specs()[id]) {
+			case ConstructorSpec c -> {
+				LOGGER.trace("Plan {}", c);
+				plan.add(c);
+				available[id] = true;
+				// Make the object available under all its aliases right away,
+				// so nothing in the same cycle needs a proxy for it
+				for (int alias: aliasesBySubtype.get(id)) {
+					alreadyPlanned[alias] = true;
+					planAlias(alias);
+				}
+			}
+			case AliasSpec a -> {
+				// If the subtype is still in progress, this will happen once it's planned
+				if (available[graph.edgeTargets()[graph.edgeStart()[id]]]) {
+					planAlias(id);
+				}
+			}
+			case AmbiguousSpec a ->
+				LOGGER.trace("Skipping {}", a);
+			case null -> throw new AssertionError("Types without specs are never entered");
+		}
+	}
+
+	private void planAlias(int id) {
+		if (!available[id]) {
+			available[id] = true;
+			LOGGER.trace("Plan {}", graph.specs()[id]);
+			plan.add((AliasSpec) graph.specs()[id]);
+		}
+	}
+
+	private static final int[] NO_ALIASES = new int[0];
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TopologicalPlanner.class);
+}
@@ -0,0 +1,285 @@
+package org.elasticsearch.nalbind.injector;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import org.elasticsearch.nalbind.injector.spec.AliasSpec;
+import org.elasticsearch.nalbind.injector.spec.ConstructorSpec;
+import org.elasticsearch.nalbind.injector.spec.ParameterSpec;
+import org.elasticsearch.nalbind.injector.spec.UnambiguousSpec;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.invoke.MethodType.methodType;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
+import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+import static org.objectweb.asm.Opcodes.AALOAD;
+import static org.objectweb.asm.Opcodes.AASTORE;
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.BIPUSH;
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.NEW;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.SIPUSH;
+import static org.objectweb.asm.Opcodes.V1_8;
+import static org.objectweb.asm.Type.getInternalName;
+
+/**
+ * Generates a class that executes an instantiation plan by calling each constructor directly
+ * with <code>invokespecial</code>.
+ * <p>
+ * The generated code works on an array of <em>values</em>: the proxies supplied by the caller,
+ * followed by one slot for each {@link ConstructorSpec} in the plan, in plan order.
+ * Each value is kept in a local variable once loaded or constructed,
+ * and each constructed object is also stored in the array for the caller to retrieve.
+ * <p>
+ * A single JVM method is limited to 64KB of bytecode, so large plans are split into
+ * several methods called in sequence from the entry point.
+ * <p>
+ * The class is named after a hash of what it does, so that the wiring of each injector,
+ * including children and added layers, can be {@link GeneratedClassArchive archived} alongside the others.
+ */
+final class WiringGenerator {
+	static final String CLASS_NAME_PREFIX = "NALBIND_WIRING_";
+
+	/**
+	 * Rough bytecode budget per method, leaving plenty of headroom below the 64KB limit.
+	 */
+	private static final int MAX_CHUNK_COST = 32 * 1024;
+
+	/**
+	 * @param wire a handle of type <code>(Object[])void</code> that populates the values array
+	 * @param numValues the size of the array to pass to {@link #wire}
+	 */
+	record Wiring(MethodHandle wire, int numValues) { }
+
+	/**
+	 * @param proxiedTypes the types whose proxies will be supplied in the first elements of the values array
+	 * @param classLoader where the generated class will be defined
+	 */
+	static Wiring generateFor(Collection<UnambiguousSpec> plan, List<Class<?>> proxiedTypes, GeneratedClassLoader classLoader) {
+		// Simulate the plan to work out which value will be supplied for each parameter
+		List<Class<?>> valueTypes = new ArrayList<>(proxiedTypes);
+		Map<Class<?>, Integer> valueIndexByType = new HashMap<>();
+		for (int i = 0; i < proxiedTypes.size(); i++) {
+			valueIndexByType.put(proxiedTypes.get(i), i);
+		}
+		List<List<Step>> chunks = new ArrayList<>();
+		List<Step> currentChunk = new ArrayList<>();
+		int currentChunkCost = 0;
+		for (var spec: plan) {
+			switch (spec) {
+				case ConstructorSpec c -> {
+					int[] argIndexes = c.parameters().stream()
+						.mapToInt(p -> valueIndex(p.type(), valueIndexByType))
+						.toArray();
+					int cost = 32 + 16 * argIndexes.length;
+					if (currentChunkCost + cost > MAX_CHUNK_COST && !currentChunk.isEmpty()) {
+						chunks.add(currentChunk);
+						currentChunk = new ArrayList<>();
+						currentChunkCost = 0;
+					}
+					currentChunk.add(new Step(c, argIndexes, valueTypes.size()));
+					currentChunkCost += cost;
+					valueIndexByType.put(c.requestedType(), valueTypes.size());
+					valueTypes.add(c.requestedType());
+				}
+				case AliasSpec(var requestedType, var subtype) ->
+					valueIndexByType.put(requestedType, valueIndex(subtype, valueIndexByType));
+			}
+		}
+		if (!currentChunk.isEmpty()) {
+			chunks.add(currentChunk);
+		}
+
+		valueTypes.forEach(classLoader::register);
+		String className = className(valueTypes, chunks);
+		ClassWriter cw = new ClassWriter(COMPUTE_MAXS | COMPUTE_FRAMES);
+		cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL, className, null, getInternalName(Object.class), null);
+		for (int chunkIndex = 0; chunkIndex < chunks.size(); chunkIndex++) {
+			generateChunkMethod(chunkIndex, chunks.get(chunkIndex), valueTypes, cw, classLoader);
+		}
+		generateEntryPoint(className, chunks.size(), cw);
+		cw.visitEnd();
+
+		LOGGER.debug("Generated wiring {} for {} values in {} methods", className, valueTypes.size(), chunks.size());
+		Class<?> wiringClass = classLoader.define(className, cw.toByteArray());
+		try {
+			MethodHandle wire = MethodHandles.publicLookup().findStatic(wiringClass, "wire", methodType(void.class, Object[].class));
+			return new Wiring(wire, valueTypes.size());
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new AssertionError("Should be able to access the generated method", e);
+		}
+	}
+
+	/**
+	 * The generated code stores each object in the values array as soon as it's constructed, in plan order,
+	 * so if it throws, the first empty slot is that of the constructor that was running.
+	 *
+	 * @param values the array passed to {@link Wiring#wire}, after it threw
+	 * @param numPresetValues the number of values supplied by the caller
+	 * @return the type whose constructor threw, or null if every object was constructed
+	 */
+	static Class<?> failedType(Collection<UnambiguousSpec> plan, Object[] values, int numPresetValues) {
+		int valueIndex = numPresetValues;
+		for (var spec: plan) {
+			if (spec instanceof ConstructorSpec c) {
+				if (values[valueIndex] == null) {
+					return c.requestedType();
+				}
+				valueIndex++;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The generated bytes depend only on the value types and the steps of each chunk,
+	 * so equal plans get equal names, and different plans almost certainly don't.
+	 */
+	private static String className(List<Class<?>> valueTypes, List<List<Step>> chunks) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-256 is required to be supported", e);
+		}
+		for (var type: valueTypes) {
+			update(digest, type.getName());
+		}
+		for (var chunk: chunks) {
+			update(digest, "chunk");
+			for (var step: chunk) {
+				update(digest, step.spec().requestedType().getName());
+				var parameters = step.spec().parameters();
+				for (int i = 0; i < parameters.size(); i++) {
+					update(digest, parameters.get(i).type().getName() + "@" + step.argIndexes()[i]);
+				}
+			}
+		}
+		return CLASS_NAME_PREFIX + HexFormat.of().formatHex(digest.digest(), 0, 16);
+	}
+
+	private static void update(MessageDigest digest, String s) {
+		digest.update(s.getBytes(UTF_8));
+		digest.update((byte) 0);
+	}
+
+	private static int valueIndex(Class<?> type, Map<Class<?>, Integer> valueIndexByType) {
+		Integer result = valueIndexByType.get(type);
+		if (result == null) {
+			throw new IllegalStateException("No injectable instance of " + type);
+		}
+		return result;
+	}
+
+	/**
+	 * @param argIndexes the values to pass to the constructor
+	 * @param valueIndex where to store the constructed object
+	 */
+	private record Step(ConstructorSpec spec, int[] argIndexes, int valueIndex) { }
+
+	private static void generateChunkMethod(
+		int chunkIndex,
+		List<Step> chunk,
+		List<Class<?>> valueTypes,
+		ClassWriter cw,
+		GeneratedClassLoader classLoader
+	) {
+		MethodVisitor mv = cw.visitMethod(ACC_PRIVATE | ACC_STATIC, chunkMethodName(chunkIndex), "([Ljava/lang/Object;)V", null, null);
+		mv.visitCode();
+
+		// Local 0 is the values array
+		Map<Integer, Integer> localByValueIndex = new HashMap<>();
+		for (var step: chunk) {
+			// The constructor is called directly, so we don't need to look it up reflectively
+			String owner = getInternalName(step.spec().requestedType());
+			mv.visitTypeInsn(NEW, owner);
+			mv.visitInsn(DUP);
+			var parameters = step.spec().parameters();
+			for (int i = 0; i < parameters.size(); i++) {
+				var p = parameters.get(i);
+				int argIndex = step.argIndexes()[i];
+				classLoader.register(p.type());
+				Integer local = localByValueIndex.get(argIndex);
+				if (local == null) {
+					// Constructed by an earlier chunk, or supplied by the caller
+					local = localByValueIndex.size() + 1;
+					localByValueIndex.put(argIndex, local);
+					mv.visitVarInsn(ALOAD, 0);
+					pushInt(argIndex, mv);
+					mv.visitInsn(AALOAD);
+					mv.visitTypeInsn(CHECKCAST, getInternalName(valueTypes.get(argIndex)));
+					mv.visitVarInsn(ASTORE, local);
+				}
+				mv.visitVarInsn(ALOAD, local);
+				if (!p.type().isAssignableFrom(valueTypes.get(argIndex))) {
+					mv.visitTypeInsn(CHECKCAST, getInternalName(p.type()));
+				}
+			}
+			var parameterTypes = parameters.stream().<Class<?>>map(ParameterSpec::type).toList();
+			mv.visitMethodInsn(INVOKESPECIAL, owner, "<init>", methodType(void.class, parameterTypes).descriptorString(), false);
+
+			int local = localByValueIndex.size() + 1;
+			localByValueIndex.put(step.valueIndex(), local);
+			mv.visitVarInsn(ASTORE, local);
+			mv.visitVarInsn(ALOAD, 0);
+			pushInt(step.valueIndex(), mv);
+			mv.visitVarInsn(ALOAD, local);
+			mv.visitInsn(AASTORE);
+		}
+
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static void generateEntryPoint(String className, int numChunks, ClassWriter cw) {
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "wire", "([Ljava/lang/Object;)V", null, null);
+		mv.visitCode();
+		for (int i = 0; i < numChunks; i++) {
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitMethodInsn(INVOKESTATIC, className, chunkMethodName(i), "([Ljava/lang/Object;)V", false);
+		}
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static String chunkMethodName(int chunkIndex) {
+		return "wire" + chunkIndex;
+	}
+
+	private static void pushInt(int value, MethodVisitor mv) {
+		if (value <= 5) {
+			mv.visitInsn(ICONST_0 + value);
+		} else if (value <= Byte.MAX_VALUE) {
+			mv.visitIntInsn(BIPUSH, value);
+		} else if (value <= Short.MAX_VALUE) {
+			mv.visitIntInsn(SIPUSH, value);
+		} else {
+			mv.visitLdcInsn(value);
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(WiringGenerator.class);
+}
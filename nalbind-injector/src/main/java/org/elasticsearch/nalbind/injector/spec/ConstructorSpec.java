@@ -3,16 +3,44 @@ package org.elasticsearch.nalbind.injector.spec;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.stream.Stream;
+import org.elasticsearch.nalbind.api.Now;
 
 /**
  * Indicates that a type should be instantiated by calling its constructor.
+ * <p>
+ * The constructor itself is looked up only when it's {@link #constructor() needed},
+ * because reflecting on a class's constructors links the class,
+ * and a class that's never instantiated needn't be linked at all.
  */
 public record ConstructorSpec(
-	Constructor<?> constructor,
+	Class<?> requestedType,
+	List<ParameterSpec> parameters,
 	List<Method> reportInjectedMethods
 ) implements UnambiguousSpec {
-	@Override
-	public Class<?> requestedType() {
-		return constructor.getDeclaringClass();
+	/**
+	 * Determines the {@link #parameters} reflectively.
+	 */
+	public ConstructorSpec(Constructor<?> constructor, List<Method> reportInjectedMethods) {
+		this(
+			constructor.getDeclaringClass(),
+			Stream.of(constructor.getParameters())
+				.map(p -> new ParameterSpec(p.getType(), p.isAnnotationPresent(Now.class)))
+				.toList(),
+			reportInjectedMethods);
+	}
+
+	/**
+	 * @throws IllegalStateException if {@link #requestedType} has no constructor with the {@link #parameters} types
+	 */
+	public Constructor<?> constructor() {
+		Class<?>[] parameterTypes = parameters.stream()
+			.map(ParameterSpec::type)
+			.toArray(Class<?>[]::new);
+		try {
+			return requestedType.getDeclaredConstructor(parameterTypes);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("No constructor matching " + this, e);
+		}
 	}
 }
@@ -0,0 +1,12 @@
+package org.elasticsearch.nalbind.injector.spec;
+
+/**
+ * Describes one parameter of the constructor in a {@link ConstructorSpec}.
+ *
+ * @param now whether the parameter is annotated with {@link org.elasticsearch.nalbind.api.Now @Now},
+ *            meaning the injected object must be instantiated first.
+ */
+public record ParameterSpec(
+	Class<?> type,
+	boolean now
+) { }
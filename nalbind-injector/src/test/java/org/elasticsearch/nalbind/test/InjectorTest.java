@@ -1,15 +1,48 @@
 package org.elasticsearch.nalbind.test;
 
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
 import org.elasticsearch.example.module1.Module1ServiceImpl;
 import org.elasticsearch.example.module2.Module2ServiceImpl;
 import org.elasticsearch.example.module2.api.Module2Service;
+import org.elasticsearch.nalbind.api.Inject;
 import org.elasticsearch.nalbind.api.InjectableSingleton;
+import org.elasticsearch.nalbind.api.Injected;
+import org.elasticsearch.nalbind.api.Lazy;
+import org.elasticsearch.nalbind.api.Now;
+import org.elasticsearch.nalbind.injector.InjectionReport;
 import org.elasticsearch.nalbind.injector.Injector;
+import org.elasticsearch.nalbind.injector.InjectorOptions;
+import org.elasticsearch.nalbind.injector.ProxyStrategy;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class InjectorTest {
 
@@ -25,6 +58,899 @@ class InjectorTest {
 			module2Service.statusReport());
 	}
 
+	@Test
+	void generatedWiring() {
+		Injector injector = Injector.withClasses(
+			List.of(Module1ServiceImpl.class, Module2ServiceImpl.class),
+			InjectorOptions.defaults().generatedWiring(true));
+		Module2Service module2Service = injector.getInstance(Module2Service.class);
+		assertEquals(
+			"Module1Service: Hello from Module1ServiceImpl to my 1 listeners",
+			module2Service.statusReport());
+	}
+
+	@Test
+	void generatedWiring_constructorFails() {
+		var e = assertThrows(IllegalStateException.class, () -> Injector.withClasses(
+			List.of(Module1ServiceImpl.class, FailingService.class),
+			InjectorOptions.defaults().generatedWiring(true)));
+		assertEquals("Unable to call constructor of " + FailingService.class.getName(), e.getMessage());
+		assertEquals(FailingService.FAILURE, e.getCause());
+	}
+
+	@Test
+	void parallelInstantiation() {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Injector injector = Injector.withClasses(
+				List.of(Module1ServiceImpl.class, Module2ServiceImpl.class, CounterImpl.class, CounterUser.class),
+				InjectorOptions.defaults().parallelInstantiation(executor));
+			assertEquals(
+				"Module1Service: Hello from Module1ServiceImpl to my 1 listeners",
+				injector.getInstance(Module2Service.class).statusReport());
+			assertEquals(1, injector.getInstance(CounterUser.class).count);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void parallelInstantiationOnVirtualThreads() {
+		Injector injector = Injector.withClasses(
+			List.of(Module1ServiceImpl.class, Module2ServiceImpl.class, CounterImpl.class, CounterUser.class),
+			InjectorOptions.defaults().parallelInstantiationOnVirtualThreads());
+		assertEquals(
+			"Module1Service: Hello from Module1ServiceImpl to my 1 listeners",
+			injector.getInstance(Module2Service.class).statusReport());
+		assertEquals(1, injector.getInstance(CounterUser.class).count);
+	}
+
+	@Test
+	void parallelInstantiation_constructorFails() {
+		var e = assertThrows(IllegalStateException.class, () -> Injector.withClasses(
+			List.of(Module1ServiceImpl.class, FailingService.class),
+			InjectorOptions.defaults().parallelInstantiationOnVirtualThreads()));
+		assertEquals(FailingService.FAILURE, e.getCause());
+	}
+
+	@Test
+	void parallelInstantiation_waitsForRunningConstructors() {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			var e = assertThrows(IllegalStateException.class, () -> Injector.withClasses(
+				List.of(FailingSibling.class, SlowSibling.class, SlowFailingSibling.class),
+				InjectorOptions.defaults().parallelInstantiation(executor)));
+			assertEquals(FailingSibling.FAILURE, e.getCause());
+			assertTrue(SlowSibling.finished, "Running constructors should finish before the failure is thrown");
+			assertEquals(1, e.getSuppressed().length, List.of(e.getSuppressed()).toString());
+			assertEquals(SlowFailingSibling.FAILURE, e.getSuppressed()[0].getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void getInstances() {
+		Injector injector = Injector.withClasses(List.of(
+			CounterImpl.class, OtherCounter.class, CounterCollector.class));
+		var counters = injector.getInstances(Counter.class);
+		assertEquals(List.of(CounterImpl.class, OtherCounter.class), counters.stream().map(Object::getClass).toList());
+		assertEquals(counters, injector.getInstance(CounterCollector.class).counters);
+		assertEquals(List.of(injector.getInstance(CounterCollector.class)), injector.getInstances(CounterCollector.class));
+		assertEquals(List.of(), injector.getInstances(Runnable.class));
+	}
+
+	@Test
+	void report() {
+		Injector injector = Injector.withClasses(List.of(CounterImpl.class, CounterUser.class));
+		InjectionReport report = injector.report();
+		assertEquals(
+			List.of("specGraph", "instantiationPlan", "deferLazySingletons", "createProxies", "executeInstantiationPlan", "resolveProxies", "reportInjectedObjects"),
+			report.phases().stream().map(InjectionReport.Phase::name).toList());
+		assertEquals(
+			List.of(CounterImpl.class, CounterUser.class),
+			report.singletons().stream().map(InjectionReport.Singleton::type).toList());
+		assertEquals(
+			List.of(new InjectionReport.Dependency(Counter.class, CounterImpl.class, true)),
+			report.singletons().get(1).dependencies());
+		assertEquals(List.of(CounterImpl.class, CounterUser.class), report.criticalPath());
+		assertTrue(report.toJson().contains("\"criticalPath\": [\"" + CounterImpl.class.getName() + "\", \"" + CounterUser.class.getName() + "\"]"));
+		assertTrue(report.toDot().contains("\"" + CounterUser.class.getName() + "\" -> \"" + CounterImpl.class.getName() + "\" [color=red, penwidth=2];"));
+	}
+
+	@Test
+	void planCache(@TempDir Path dir) throws IOException {
+		Path file = dir.resolve("plan");
+		var options = InjectorOptions.defaults().planCache(file);
+		var classes = List.<Class<?>>of(Module1ServiceImpl.class, Module2ServiceImpl.class, CounterImpl.class, CounterUser.class);
+
+		Injector first = Injector.withClasses(classes, options);
+		assertTrue(Files.exists(file));
+		assertEquals(List.of("readPlanCache", "specGraph", "instantiationPlan", "writePlanCache"), phaseNames(first).subList(0, 4));
+
+		Injector second = Injector.withClasses(classes, options);
+		assertEquals(List.of("readPlanCache", "deferLazySingletons"), phaseNames(second).subList(0, 2));
+		assertEquals(
+			"Module1Service: Hello from Module1ServiceImpl to my 1 listeners",
+			second.getInstance(Module2Service.class).statusReport());
+		assertEquals(1, second.getInstance(CounterUser.class).count);
+		assertEquals(first.report().singletons().size(), second.report().singletons().size());
+
+		// A different root set must not use the cached plan
+		Injector third = Injector.withClasses(List.of(CounterImpl.class, CounterUser.class), options);
+		assertEquals(List.of("readPlanCache", "specGraph"), phaseNames(third).subList(0, 2));
+
+		// Nor should a corrupt file
+		Files.write(file, new byte[] { 1, 2, 3 });
+		Injector fourth = Injector.withClasses(classes, options);
+		assertEquals(List.of("readPlanCache", "specGraph"), phaseNames(fourth).subList(0, 2));
+		assertEquals(1, fourth.getInstance(CounterUser.class).count);
+	}
+
+	@Test
+	void planCache_notOverwrittenByAddedClassesOrChildren(@TempDir Path dir) throws IOException {
+		Path file = dir.resolve("plan");
+		var options = InjectorOptions.defaults().planCache(file);
+		var classes = List.<Class<?>>of(CounterImpl.class, CounterUser.class);
+
+		Injector first = Injector.withClasses(classes, options);
+		byte[] cached = Files.readAllBytes(file);
+		first.addClasses(List.of(CounterHolder.class));
+		first.createChild(List.of(PingImpl.class, PongImpl.class), options);
+		assertArrayEquals(cached, Files.readAllBytes(file));
+
+		Injector second = Injector.withClasses(classes, options);
+		assertEquals(List.of("readPlanCache", "deferLazySingletons"), phaseNames(second).subList(0, 2));
+	}
+
+	@Test
+	void proxiesOnlyForCycles() {
+		Injector injector = Injector.withClasses(
+			List.of(CounterHolder.class, CounterImpl.class, PingImpl.class, PongImpl.class),
+			InjectorOptions.defaults().proxiesOnlyForCycles(true));
+		var counter = injector.getInstance(Counter.class);
+		assertSame(counter, injector.getInstance(CounterHolder.class).counter, "Acyclic dependencies should not be proxied");
+
+		var proxiedTypes = injector.report().proxiedTypes();
+		assertEquals(1, proxiedTypes.size(), "Only one proxy is needed to break the cycle: " + proxiedTypes);
+		assertEquals("pong", injector.getInstance(Ping.class).pongName());
+		assertEquals("ping", injector.getInstance(Pong.class).pingName());
+	}
+
+	@Test
+	void proxiesOnlyForCycles_nowCycle() {
+		var e = assertThrows(IllegalStateException.class, () -> Injector.withClasses(
+			List.of(NowPingImpl.class, NowPongImpl.class),
+			InjectorOptions.defaults().proxiesOnlyForCycles(true)));
+		assertTrue(e.getMessage().startsWith("Cycle of @Now dependencies"), e.getMessage());
+	}
+
+	@Test
+	void nowCycles_allReportedWithPaths() {
+		for (var options: List.of(InjectorOptions.defaults(), InjectorOptions.defaults().proxiesOnlyForCycles(true))) {
+			var e = assertThrows(IllegalStateException.class, () -> Injector.withClasses(
+				List.of(NowPingImpl.class, NowPongImpl.class, NowSelf.class),
+				options));
+			var lines = e.getMessage().lines().toList();
+			assertEquals("Cycle of @Now dependencies:", lines.getFirst());
+			assertEquals(3, lines.size(), e.getMessage());
+			assertTrue(lines.contains("\t" + String.join(" -> ",
+				NowPingImpl.class.getName(), Pong.class.getName(), NowPongImpl.class.getName(), Ping.class.getName(), NowPingImpl.class.getName())),
+				e.getMessage());
+			assertTrue(lines.contains("\t" + NowSelf.class.getName() + " -> " + NowSelf.class.getName()), e.getMessage());
+		}
+	}
+
+	@Test
+	void scanClassPath() {
+		Injector injector = Injector.withInjectableSingletonsProvidedBy(
+			ModuleLayer.boot(),
+			InjectorOptions.defaults().scanParentLayers(true).scanClassPath(getClass().getClassLoader()));
+		assertEquals(4, injector.getInstance(Counter.class).count());
+		assertEquals(List.of(ClassPathCounter.class), injector.report().singletons().stream().map(InjectionReport.Singleton::type).toList());
+		assertEquals("scanProviders", phaseNames(injector).getFirst());
+	}
+
+	@Test
+	void injectionIndex_used(@TempDir Path dir) throws IOException {
+		// Reflection would choose the @Inject constructor
+		Injector injector = withIndexOnClassPath(dir, List.of(IndexedService.class, IndexedDependency.class), """
+			nalbind-injection-index 1
+			singleton org.elasticsearch.nalbind.test.InjectorTest$IndexedService
+			constructor
+			""");
+		assertNull(injector.getInstance(IndexedService.class).dependency);
+	}
+
+	@Test
+	void injectionIndex_unrecognizedFormat_ignored(@TempDir Path dir) throws IOException {
+		Injector injector = withIndexOnClassPath(dir, List.of(UnindexedService.class, IndexedDependency.class), """
+			nalbind-injection-index 0
+			singleton org.elasticsearch.nalbind.test.InjectorTest$UnindexedService
+			constructor
+			""");
+		assertNotNull(injector.getInstance(UnindexedService.class).dependency);
+	}
+
+	@Test
+	void injectionIndex_stale_throws(@TempDir Path dir) {
+		var e = assertThrows(IllegalStateException.class, () -> withIndexOnClassPath(dir, List.of(StaleIndexedService.class), """
+			nalbind-injection-index 1
+			singleton org.elasticsearch.nalbind.test.InjectorTest$StaleIndexedService
+			constructor
+			parameter org.elasticsearch.nalbind.test.InjectorTest$RemovedDependency
+			"""));
+		assertTrue(causes(e).anyMatch(t -> ("Injection index does not match class " + StaleIndexedService.class.getName()).equals(t.getMessage())), e.toString());
+	}
+
+	@Test
+	void injectionIndex_malformed_throws(@TempDir Path dir) {
+		var e = assertThrows(IllegalStateException.class, () -> withIndexOnClassPath(dir, List.of(StaleIndexedService.class), """
+			nalbind-injection-index 1
+			constructor
+			"""));
+		assertTrue(causes(e).anyMatch(t -> "Injection index line appears before any singleton: constructor".equals(t.getMessage())), e.toString());
+	}
+
+	/**
+	 * Builds an injector for <code>singletons</code>, and {@link ClassPathCounter} from our own class path,
+	 * with the given injection index on the class path.
+	 */
+	private static Injector withIndexOnClassPath(Path dir, List<Class<?>> singletons, String index) throws IOException {
+		Path services = dir.resolve("META-INF/services/" + InjectableSingleton.class.getName());
+		Files.createDirectories(services.getParent());
+		Files.write(services, singletons.stream().map(Class::getName).toList());
+		Path indexFile = dir.resolve("META-INF/nalbind/injection-index");
+		Files.createDirectories(indexFile.getParent());
+		Files.writeString(indexFile, index);
+		try (var loader = new URLClassLoader(new URL[]{ dir.toUri().toURL() }, InjectorTest.class.getClassLoader())) {
+			return Injector.withInjectableSingletonsProvidedBy(ModuleLayer.empty(), InjectorOptions.defaults().scanClassPath(loader));
+		}
+	}
+
+	private static Stream<Throwable> causes(Throwable t) {
+		return Stream.iterate(t, Objects::nonNull, Throwable::getCause);
+	}
+
+	@Test
+	void proxyStrategy() {
+		Injector injector = Injector.withClasses(
+			List.of(PingImpl.class, PongImpl.class),
+			InjectorOptions.defaults().proxyStrategy(ProxyStrategy.VOLATILE_FIELD));
+		assertEquals("pong", injector.getInstance(Ping.class).pongName());
+		assertEquals("ping", injector.getInstance(Pong.class).pingName());
+	}
+
+	@Test
+	void exportGeneratedClasses(@TempDir Path dir) throws IOException {
+		var classes = List.<Class<?>>of(PingImpl.class, PongImpl.class);
+		Path exported = dir.resolve("generated-classes");
+		Injector.withClasses(classes, InjectorOptions.defaults()
+			.generatedWiring(true)
+			.proxyStrategy(ProxyStrategy.VOLATILE_FIELD)
+			.exportGeneratedClasses(exported));
+		List<String> classList = Files.readAllLines(exported.resolve("classlist"));
+		assertTrue(classList.stream().anyMatch(name -> name.startsWith("NALBIND_WIRING_")), classList.toString());
+		assertTrue(classList.stream().anyMatch(name -> name.startsWith("nalbind.proxy.")), classList.toString());
+
+		Path jar = dir.resolve("generated.jar");
+		try (var out = new JarOutputStream(Files.newOutputStream(jar))) {
+			for (String name: classList) {
+				String entryName = name.replace('.', '/') + ".class";
+				out.putNextEntry(new JarEntry(entryName));
+				out.write(Files.readAllBytes(exported.resolve(entryName)));
+				out.closeEntry();
+			}
+		}
+
+		Injector injector = Injector.withClasses(classes, InjectorOptions.defaults()
+			.generatedWiring(true)
+			.proxyStrategy(ProxyStrategy.VOLATILE_FIELD)
+			.generatedClassJar(jar));
+		var ping = (PingImpl) injector.getInstance(Ping.class);
+		var pong = (PongImpl) injector.getInstance(Pong.class);
+		assertEquals("pong", ping.pongName());
+		assertEquals("ping", pong.pingName());
+		var proxyClasses = List.<Object>of(ping.pong, pong.ping).stream()
+			.map(Object::getClass)
+			.filter(c -> c.getName().startsWith("nalbind.proxy."))
+			.toList();
+		assertEquals(1, proxyClasses.size(), proxyClasses.toString());
+		assertEquals(jar.toUri().toURL(), proxyClasses.getFirst().getProtectionDomain().getCodeSource().getLocation());
+	}
+
+	@Test
+	void exportGeneratedClasses_twice(@TempDir Path dir) throws IOException {
+		for (int i = 0; i < 2; i++) {
+			Injector.withClasses(List.of(PingImpl.class, PongImpl.class), InjectorOptions.defaults()
+				.generatedWiring(true)
+				.proxyStrategy(ProxyStrategy.VOLATILE_FIELD)
+				.exportGeneratedClasses(dir));
+		}
+		List<String> classList = Files.readAllLines(dir.resolve("classlist"));
+		assertEquals(Set.copyOf(classList).size(), classList.size(), "Duplicate names: " + classList);
+		assertEquals(1, classList.stream().filter(name -> name.startsWith("NALBIND_WIRING_")).count(), classList.toString());
+	}
+
+	@Test
+	void exportGeneratedClasses_addedLayerKeepsRootWiring(@TempDir Path dir) throws IOException {
+		var options = InjectorOptions.defaults()
+			.generatedWiring(true)
+			.exportGeneratedClasses(dir);
+		Injector injector = Injector.withClasses(List.of(CounterImpl.class), options);
+		List<String> rootWiring = Files.readAllLines(dir.resolve("classlist")).stream()
+			.filter(name -> name.startsWith("NALBIND_WIRING_"))
+			.toList();
+		assertEquals(1, rootWiring.size(), rootWiring.toString());
+		Path rootWiringFile = dir.resolve(rootWiring.getFirst() + ".class");
+		byte[] rootWiringBytes = Files.readAllBytes(rootWiringFile);
+
+		injector.addClasses(List.of(CounterHolder.class));
+		List<String> classList = Files.readAllLines(dir.resolve("classlist"));
+		assertEquals(2, classList.stream().filter(name -> name.startsWith("NALBIND_WIRING_")).count(), classList.toString());
+		assertArrayEquals(rootWiringBytes, Files.readAllBytes(rootWiringFile), "Root wiring should be intact");
+	}
+
+	@Test
+	void lazy() throws InterruptedException {
+		int before = LazyCounter.instantiations.get();
+		Injector injector = Injector.withClasses(List.of(CounterHolder.class, LazyCounter.class));
+		assertEquals(before, LazyCounter.instantiations.get(), "Lazy singleton should not be instantiated at startup");
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			threads.add(Thread.ofPlatform().start(() -> injector.getInstance(CounterHolder.class).counter.count()));
+		}
+		for (var t: threads) {
+			t.join();
+		}
+		assertEquals(before + 1, LazyCounter.instantiations.get(), "Lazy singleton should be instantiated exactly once");
+		assertEquals(3, injector.getInstance(CounterHolder.class).counter.count());
+		assertSame(injector.getInstance(LazyCounter.class), injector.getInstance(Counter.class));
+		assertEquals(List.of(injector.getInstance(LazyCounter.class)), injector.getInstances(Counter.class));
+	}
+
+	@Test
+	void lazy_getInstance() {
+		int before = LazyCounter.instantiations.get();
+		Injector injector = Injector.withClasses(List.of(LazyCounter.class));
+		assertEquals(before, LazyCounter.instantiations.get());
+		assertEquals(3, injector.getInstance(Counter.class).count());
+		assertEquals(before + 1, LazyCounter.instantiations.get());
+	}
+
+	@Test
+	void lazy_neededByNowParameter() {
+		int before = LazyCounter.instantiations.get();
+		Injector injector = Injector.withClasses(List.of(CounterUser.class, LazyCounter.class));
+		assertEquals(before + 1, LazyCounter.instantiations.get(), "A @Now dependency can't be lazy");
+		assertEquals(3, injector.getInstance(CounterUser.class).count);
+		assertSame(injector.getInstance(LazyCounter.class), injector.getInstance(Counter.class));
+	}
+
+	@Test
+	void lazy_neededByNowParameterOfInnerClass() {
+		int before = LazyCounter.instantiations.get();
+		Injector injector = Injector.withClasses(List.of(Outer.class, Outer.InnerCounterUser.class, LazyCounter.class));
+		assertEquals(before + 1, LazyCounter.instantiations.get(), "@Now applies to the declared parameter, not the enclosing instance");
+		assertEquals(3, injector.getInstance(Outer.InnerCounterUser.class).count);
+	}
+
+	@Test
+	void createChild() {
+		Injector parent = Injector.withClasses(List.of(CounterImpl.class));
+		Injector child = parent.createChild(List.of(CounterUser.class, CounterHolder.class));
+		assertEquals(1, child.getInstance(CounterUser.class).count);
+		assertSame(parent.getInstance(Counter.class), child.getInstance(CounterHolder.class).counter);
+		assertSame(parent.getInstance(Counter.class), child.getInstance(Counter.class));
+		assertEquals(List.of(), parent.getInstances(CounterUser.class));
+		assertEquals(
+			List.of(new InjectionReport.Dependency(Counter.class, Counter.class, true)),
+			child.report().singletons().getFirst().dependencies());
+	}
+
+	@Test
+	void createChild_withEachExecutor() {
+		Injector parent = Injector.withClasses(List.of(CounterImpl.class));
+		for (var options: List.of(
+			InjectorOptions.defaults(),
+			InjectorOptions.defaults().generatedWiring(true),
+			InjectorOptions.defaults().parallelInstantiationOnVirtualThreads())
+		) {
+			Injector child = parent.createChild(List.of(CounterUser.class, CounterHolder.class), options);
+			assertEquals(1, child.getInstance(CounterUser.class).count);
+			assertSame(parent.getInstance(Counter.class), child.getInstance(CounterHolder.class).counter);
+		}
+	}
+
+	@Test
+	void createChild_overridesParent() {
+		Injector parent = Injector.withClasses(List.of(CounterImpl.class));
+		Injector child = parent.createChild(List.of(OtherCounter.class, CounterUser.class));
+		assertEquals(2, child.getInstance(CounterUser.class).count);
+		assertEquals(
+			List.of(CounterImpl.class, OtherCounter.class),
+			child.getInstances(Counter.class).stream().map(Object::getClass).toList());
+		assertEquals(1, parent.getInstance(Counter.class).count());
+	}
+
+	@Test
+	void addClasses() {
+		Injector injector = Injector.withClasses(List.of(CounterImpl.class, CounterCollector.class));
+		Counter existing = injector.getInstance(Counter.class);
+		var report = injector.addClasses(List.of(CounterImpl.class, CounterHolder.class));
+		assertEquals(
+			List.of(CounterHolder.class),
+			report.singletons().stream().map(InjectionReport.Singleton::type).toList(),
+			"Only the new classes are instantiated");
+		assertSame(existing, injector.getInstance(CounterHolder.class).counter);
+
+		injector.addClasses(List.of(OtherCounter.class));
+		assertSame(existing, injector.getInstance(Counter.class));
+		assertEquals(2, injector.getInstance(OtherCounter.class).count());
+		assertEquals(injector.getInstances(Counter.class), injector.getInstance(CounterCollector.class).counters);
+		assertEquals(
+			List.of(CounterImpl.class, OtherCounter.class),
+			injector.getInstances(Counter.class).stream().map(Object::getClass).toList());
+	}
+
+	@Test
+	void addClasses_newListener() {
+		Injector injector = Injector.withClasses(List.of(CounterImpl.class));
+		injector.addClasses(List.of(CounterCollector.class));
+		injector.addClasses(List.of(OtherCounter.class));
+		assertEquals(
+			List.of(CounterImpl.class, OtherCounter.class),
+			injector.getInstance(CounterCollector.class).counters.stream().map(Object::getClass).toList());
+	}
+
+	@Test
+	void getInstance_concurrentWithAddClasses() throws Exception {
+		Injector injector = Injector.withClasses(List.of(CounterImpl.class));
+		Counter existing = injector.getInstance(Counter.class);
+		try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+			List<Future<?>> readers = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				readers.add(executor.submit(() -> {
+					for (int i = 0; i < 100_000; i++) {
+						assertSame(existing, injector.getInstance(Counter.class));
+					}
+				}));
+			}
+			injector.addClasses(List.of(OtherCounter.class));
+			for (var reader: readers) {
+				reader.get();
+			}
+		}
+		assertSame(existing, injector.getInstance(Counter.class));
+		assertEquals(2, injector.getInstance(OtherCounter.class).count());
+	}
+
+	@Test
+	void injected_listenerInterface() {
+		Injector injector = Injector.withClasses(List.of(FirstTally.class, CountPublisher.class));
+		var publisher = injector.getInstance(CountPublisher.class);
+		publisher.listener.counted(3);
+		injector.addClasses(List.of(SecondTally.class));
+		publisher.listener.counted(4);
+		assertEquals(7, injector.getInstance(FirstTally.class).total, "The new proxy should still call the existing listener");
+		assertEquals(4, injector.getInstance(SecondTally.class).total);
+	}
+
+	@Test
+	void compact() {
+		Injector injector = Injector.withClasses(List.of(CounterImpl.class, CounterHolder.class, CounterCollector.class), InjectorOptions.defaults()
+			.compact(true));
+		assertEquals(1, injector.getInstance(CounterHolder.class).counter.count());
+		injector.addClasses(List.of(OtherCounter.class));
+		assertEquals(
+			List.of(CounterImpl.class, OtherCounter.class),
+			injector.getInstance(CounterCollector.class).counters.stream().map(Object::getClass).toList());
+		assertEquals(List.of(CounterHolder.class), injector.createChild(List.of(CounterHolder.class)).report().singletons().stream()
+			.map(InjectionReport.Singleton::type)
+			.toList());
+	}
+
+	@Test
+	void close() {
+		Injector injector = Injector.withClasses(List.of(CloseLog.class, Database.class, Repository.class, Cache.class, Server.class));
+		var log = injector.getInstance(CloseLog.class);
+		injector.close();
+		assertClosedDependentsFirst(log);
+		injector.close();
+		assertEquals(4, log.closed.size(), "Closing again should do nothing");
+	}
+
+	@Test
+	void close_withExecutor() {
+		Injector injector = Injector.withClasses(List.of(CloseLog.class, Database.class, Repository.class, Cache.class, Server.class));
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			injector.close(executor, Duration.ofSeconds(10));
+		}
+		assertClosedDependentsFirst(injector.getInstance(CloseLog.class));
+	}
+
+	@Test
+	void close_failuresReportedTogether() {
+		Injector injector = Injector.withClasses(List.of(CloseLog.class, Database.class, FailingClose.class, SlowClose.class));
+		var log = injector.getInstance(CloseLog.class);
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			try {
+				var e = assertThrows(IllegalStateException.class, () -> injector.close(executor, Duration.ofMillis(100)));
+				assertEquals(List.of(FailingClose.class, Database.class), log.closed, "Dependencies should close despite failures");
+				var suppressed = List.of(e.getSuppressed());
+				assertEquals(2, suppressed.size());
+				assertTrue(suppressed.stream().anyMatch(t -> t.getCause() == FailingClose.FAILURE));
+				assertTrue(suppressed.stream().anyMatch(t -> t instanceof TimeoutException));
+			} finally {
+				// Let SlowClose finish so the executor can shut down
+				log.release.countDown();
+			}
+		}
+	}
+
+	private static void assertClosedDependentsFirst(CloseLog log) {
+		assertEquals(4, log.closed.size());
+		assertEquals(Server.class, log.closed.getFirst());
+		assertEquals(Set.of(Repository.class, Cache.class), Set.copyOf(log.closed.subList(1, 3)));
+		assertEquals(Database.class, log.closed.getLast());
+	}
+
+	private static List<String> phaseNames(Injector injector) {
+		return injector.report().phases().stream()
+			.map(InjectionReport.Phase::name)
+			.toList();
+	}
+
+	public interface Counter {
+		int count();
+	}
+
+	public static class CounterImpl implements Counter {
+		@Override
+		public int count() {
+			return 1;
+		}
+	}
+
+	public static class OtherCounter implements Counter {
+		@Override
+		public int count() {
+			return 2;
+		}
+	}
+
+	@Lazy
+	public static class LazyCounter implements Counter {
+		static final AtomicInteger instantiations = new AtomicInteger();
+
+		public LazyCounter() {
+			instantiations.incrementAndGet();
+		}
+
+		@Override
+		public int count() {
+			return 3;
+		}
+	}
+
+	public static class IndexedDependency { }
+
+	/**
+	 * Has a constructor that reflection would choose, and one that an injection index can choose instead.
+	 */
+	public static class IndexedService {
+		final IndexedDependency dependency;
+
+		public IndexedService() {
+			this.dependency = null;
+		}
+
+		@Inject
+		public IndexedService(IndexedDependency dependency) {
+			this.dependency = dependency;
+		}
+	}
+
+	public static class UnindexedService {
+		final IndexedDependency dependency;
+
+		public UnindexedService() {
+			this.dependency = null;
+		}
+
+		@Inject
+		public UnindexedService(IndexedDependency dependency) {
+			this.dependency = dependency;
+		}
+	}
+
+	public static class StaleIndexedService {
+	}
+
+	public static class ClassPathCounter implements Counter {
+		@Override
+		public int count() {
+			return 4;
+		}
+	}
+
+	public static class CounterCollector {
+		final List<Counter> counters = new ArrayList<>();
+
+		@Injected
+		public void counters(Collection<Counter> counters) {
+			this.counters.addAll(counters);
+		}
+	}
+
+	public interface CountListener {
+		void counted(int count);
+	}
+
+	public static class FirstTally implements CountListener {
+		int total = 0;
+
+		@Override
+		public void counted(int count) {
+			total += count;
+		}
+	}
+
+	public static class SecondTally implements CountListener {
+		int total = 0;
+
+		@Override
+		public void counted(int count) {
+			total += count;
+		}
+	}
+
+	public static class CountPublisher {
+		CountListener listener;
+
+		@Injected
+		public void listener(CountListener listener) {
+			this.listener = listener;
+		}
+	}
+
+	public static class CounterUser {
+		final int count;
+
+		public CounterUser(@Now Counter counter) {
+			this.count = counter.count();
+		}
+	}
+
+	public static class Outer {
+		public class InnerCounterUser {
+			final int count;
+
+			public InnerCounterUser(@Now Counter counter) {
+				this.count = counter.count();
+			}
+		}
+	}
+
+	public static class CounterHolder {
+		final Counter counter;
+
+		public CounterHolder(Counter counter) {
+			this.counter = counter;
+		}
+	}
+
+	public interface Ping {
+		String name();
+		String pongName();
+	}
+
+	public interface Pong {
+		String name();
+		String pingName();
+	}
+
+	public static class PingImpl implements Ping {
+		final Pong pong;
+
+		public PingImpl(Pong pong) {
+			this.pong = pong;
+		}
+
+		@Override
+		public String name() {
+			return "ping";
+		}
+
+		@Override
+		public String pongName() {
+			return pong.name();
+		}
+	}
+
+	public static class PongImpl implements Pong {
+		final Ping ping;
+
+		public PongImpl(Ping ping) {
+			this.ping = ping;
+		}
+
+		@Override
+		public String name() {
+			return "pong";
+		}
+
+		@Override
+		public String pingName() {
+			return ping.name();
+		}
+	}
+
+	public static class NowPingImpl implements Ping {
+		public NowPingImpl(@Now Pong pong) { }
+
+		@Override
+		public String name() {
+			return "ping";
+		}
+
+		@Override
+		public String pongName() {
+			return "pong";
+		}
+	}
+
+	public static class NowPongImpl implements Pong {
+		public NowPongImpl(@Now Ping ping) { }
+
+		@Override
+		public String name() {
+			return "pong";
+		}
+
+		@Override
+		public String pingName() {
+			return "ping";
+		}
+	}
+
+	public static class NowSelf {
+		public NowSelf(@Now NowSelf self) { }
+	}
+
+	public static class CloseLog {
+		final List<Class<?>> closed = new CopyOnWriteArrayList<>();
+		final CountDownLatch release = new CountDownLatch(1);
+	}
+
+	public static class Database implements AutoCloseable {
+		final CloseLog log;
+
+		public Database(CloseLog log) {
+			this.log = log;
+		}
+
+		@Override
+		public void close() {
+			log.closed.add(Database.class);
+		}
+	}
+
+	public static class Repository implements AutoCloseable {
+		final CloseLog log;
+
+		public Repository(CloseLog log, Database database) {
+			this.log = log;
+		}
+
+		@Override
+		public void close() {
+			log.closed.add(Repository.class);
+		}
+	}
+
+	public static class Cache implements AutoCloseable {
+		final CloseLog log;
+
+		public Cache(CloseLog log, Database database) {
+			this.log = log;
+		}
+
+		@Override
+		public void close() {
+			log.closed.add(Cache.class);
+		}
+	}
+
+	public static class Server implements AutoCloseable {
+		final CloseLog log;
+
+		public Server(CloseLog log, Repository repository, Cache cache) {
+			this.log = log;
+		}
+
+		@Override
+		public void close() {
+			log.closed.add(Server.class);
+		}
+	}
+
+	public static class FailingClose implements AutoCloseable {
+		static final IOException FAILURE = new IOException("Deliberate failure");
+		final CloseLog log;
+
+		public FailingClose(CloseLog log, Database database) {
+			this.log = log;
+		}
+
+		@Override
+		public void close() throws IOException {
+			log.closed.add(FailingClose.class);
+			throw FAILURE;
+		}
+	}
+
+	public static class SlowClose implements AutoCloseable {
+		final CloseLog log;
+
+		public SlowClose(CloseLog log, Database database) {
+			this.log = log;
+		}
+
+		@Override
+		public void close() {
+			try {
+				log.release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			log.closed.add(SlowClose.class);
+		}
+	}
+
+	public static class FailingService {
+		static final RuntimeException FAILURE = new UnsupportedOperationException("Deliberate failure");
+
+		public FailingService() {
+			throw FAILURE;
+		}
+	}
+
+	/**
+	 * Fails once its siblings have started.
+	 */
+	public static class FailingSibling {
+		static final RuntimeException FAILURE = new UnsupportedOperationException("Deliberate failure");
+		static final CountDownLatch siblingsStarted = new CountDownLatch(2);
+
+		public FailingSibling() throws InterruptedException {
+			siblingsStarted.await();
+			throw FAILURE;
+		}
+	}
+
+	public static class SlowSibling {
+		static volatile boolean finished = false;
+
+		public SlowSibling() throws InterruptedException {
+			FailingSibling.siblingsStarted.countDown();
+			Thread.sleep(200);
+			finished = true;
+		}
+	}
+
+	public static class SlowFailingSibling {
+		static final RuntimeException FAILURE = new UnsupportedOperationException("Deliberate later failure");
+
+		public SlowFailingSibling() throws InterruptedException {
+			FailingSibling.siblingsStarted.countDown();
+			Thread.sleep(200);
+			throw FAILURE;
+		}
+	}
+
 	void testDetectAllSPI() throws IOException {
 		for (var m: Module2Service.class.getModule().getLayer().modules()) {
 			System.out.println("Module: " + m);
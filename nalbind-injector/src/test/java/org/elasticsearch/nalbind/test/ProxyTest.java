@@ -1,11 +1,18 @@
 package org.elasticsearch.nalbind.test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
 import org.elasticsearch.nalbind.injector.ProxyFactory;
 import org.elasticsearch.nalbind.injector.ProxyFactory.ProxyInfo;
+import org.elasticsearch.nalbind.injector.ProxyStrategy;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class ProxyTest {
@@ -33,6 +40,129 @@ public class ProxyTest {
 		assertThrows(IllegalStateException.class, () -> proxy.setter().accept(new TestImplementation()));
 	}
 
+	@Test
+	void proxiesOfSameInterface_independent() {
+		var factory = new ProxyFactory();
+		ProxyInfo<TestInterface> proxy1 = factory.generate(TestInterface.class);
+		ProxyInfo<TestInterface> proxy2 = factory.generate(TestInterface.class);
+		proxy1.setter().accept(arg -> "First " + arg);
+		proxy2.setter().accept(arg -> "Second " + arg);
+		assertEquals("First testArg", proxy1.proxyObject().testMethod("testArg"));
+		assertEquals("Second testArg", proxy2.proxyObject().testMethod("testArg"));
+	}
+
+	@Test
+	void fieldStrategies_behaveLikeIndy() {
+		for (var strategy: new ProxyStrategy[]{ ProxyStrategy.VOLATILE_FIELD, ProxyStrategy.FENCED_FIELD }) {
+			var factory = new ProxyFactory(strategy);
+			ProxyInfo<TestInterface> proxy1 = factory.generate(TestInterface.class);
+			ProxyInfo<TestInterface> proxy2 = factory.generate(TestInterface.class);
+			assertThrows(IllegalStateException.class, () -> proxy1.proxyObject().testMethod("testArg"), strategy.name());
+			proxy1.setter().accept(arg -> "First " + arg);
+			proxy2.setter().accept(arg -> "Second " + arg);
+			assertEquals("First testArg", proxy1.proxyObject().testMethod("testArg"), strategy.name());
+			assertEquals("Second testArg", proxy2.proxyObject().testMethod("testArg"), strategy.name());
+			assertThrows(IllegalStateException.class, () -> proxy1.setter().accept(new TestImplementation()), strategy.name());
+		}
+	}
+
+	@Test
+	void superinterfaceMethod_works() {
+		for (var strategy: ProxyStrategy.values()) {
+			ProxyInfo<TestSubinterface> proxy = new ProxyFactory(strategy).generate(TestSubinterface.class);
+			proxy.setter().accept(new TestSubimplementation());
+			assertEquals("Received testArg", proxy.proxyObject().testMethod("testArg"), strategy.name());
+			assertEquals("Other testArg", proxy.proxyObject().otherMethod("testArg"), strategy.name());
+		}
+	}
+
+	/**
+	 * The interface comes from a loader that our own loader can't see,
+	 * which instead resolves the same name to a different class.
+	 */
+	@Test
+	void interfaceFromUnrelatedLoader_works() throws Exception {
+		Class<?> isolated = new IsolatedLoader().defineCopy(TestInterface.class);
+		assertNotSame(TestInterface.class, isolated);
+		for (var strategy: ProxyStrategy.values()) {
+			var factory = new ProxyFactory(strategy);
+			var proxy = generate(factory, isolated);
+			proxy.setter().accept(Proxy.newProxyInstance(isolated.getClassLoader(), new Class<?>[]{ isolated }, (p, m, args) -> "Isolated " + args[0]));
+			assertEquals("Isolated testArg", isolated.getMethod("testMethod", String.class).invoke(proxy.proxyObject(), "testArg"), strategy.name());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ProxyInfo<Object> generate(ProxyFactory factory, Class<?> interfaceType) {
+		return factory.generate((Class<Object>) interfaceType);
+	}
+
+	/**
+	 * Defines its own copies of the classes on our class path, such as the declaring class of a nested interface,
+	 * and leaves the rest to the platform loader.
+	 */
+	private static final class IsolatedLoader extends ClassLoader {
+		IsolatedLoader() {
+			super(ClassLoader.getPlatformClassLoader());
+		}
+
+		Class<?> defineCopy(Class<?> original) throws ClassNotFoundException {
+			return loadClass(original.getName());
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			try (InputStream in = ProxyTest.class.getClassLoader().getResourceAsStream(name.replace('.', '/') + ".class")) {
+				if (in == null) {
+					throw new ClassNotFoundException(name);
+				}
+				byte[] bytes = in.readAllBytes();
+				return defineClass(name, bytes, 0, bytes.length);
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+	}
+
+	@Test
+	void setAll_setsEachProxy() {
+		for (var strategy: ProxyStrategy.values()) {
+			var factory = new ProxyFactory(strategy);
+			List<ProxyInfo<TestInterface>> proxies = List.of(factory.generate(TestInterface.class), factory.generate(TestInterface.class));
+			ProxyFactory.setAll(proxies, List.<TestInterface>of(arg -> "First " + arg, arg -> "Second " + arg));
+			assertEquals("First testArg", proxies.get(0).proxyObject().testMethod("testArg"), strategy.name());
+			assertEquals("Second testArg", proxies.get(1).proxyObject().testMethod("testArg"), strategy.name());
+			assertThrows(IllegalStateException.class, () -> ProxyFactory.setAll(proxies.subList(0, 1), List.of(new TestImplementation())), strategy.name());
+		}
+	}
+
+	@Test
+	void multicast_callsEveryTarget() {
+		// Enough targets to need a composite of composites
+		List<String> received = new ArrayList<>();
+		List<TestListener> targets = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			String name = "target" + i;
+			targets.add((arg, count) -> received.add(name + " " + arg + " " + count));
+		}
+		TestListener multicast = new ProxyFactory().generateMulticast(TestListener.class, targets);
+		multicast.superMethod("testArg", 2L);
+		assertEquals(300, received.size());
+		assertEquals("target0 testArg 2", received.getFirst());
+		assertEquals("target299 testArg 2", received.getLast());
+	}
+
+	@Test
+	void multicast_returnValue_throws() {
+		assertThrows(IllegalArgumentException.class, () -> new ProxyFactory().generateMulticast(TestInterface.class, List.of(new TestImplementation())));
+	}
+
+	public interface TestSuperlistener {
+		void superMethod(String arg, long count);
+	}
+
+	public interface TestListener extends TestSuperlistener { }
+
 	public interface TestInterface {
 		String testMethod(String arg);
 	}
@@ -43,4 +173,15 @@ public class ProxyTest {
 			return "Received " + arg;
 		}
 	}
+
+	public interface TestSubinterface extends TestInterface {
+		String otherMethod(String arg);
+	}
+
+	public class TestSubimplementation extends TestImplementation implements TestSubinterface {
+		@Override
+		public String otherMethod(String arg) {
+			return "Other " + arg;
+		}
+	}
 }
@@ -0,0 +1,8 @@
+import javax.annotation.processing.Processor;
+import org.elasticsearch.nalbind.processor.InjectionIndexProcessor;
+
+module nalbind.processor {
+	requires java.compiler;
+	requires nalbind.api;
+	provides Processor with InjectionIndexProcessor;
+}
@@ -0,0 +1,239 @@
+package org.elasticsearch.nalbind.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.ModuleElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import org.elasticsearch.nalbind.api.Inject;
+import org.elasticsearch.nalbind.api.InjectableSingleton;
+import org.elasticsearch.nalbind.api.Injected;
+import org.elasticsearch.nalbind.api.Now;
+
+import static javax.tools.Diagnostic.Kind.ERROR;
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
+
+/**
+ * Writes an index of everything the injector would otherwise need to discover
+ * reflectively about the classes a module <code>provides</code> as an {@link InjectableSingleton},
+ * so the injector can skip that work at startup.
+ * <p>
+ * The format must be kept in sync with <code>InjectionIndex</code> in <code>nalbind-injector</code>.
+ */
+@SupportedAnnotationTypes("*")
+public class InjectionIndexProcessor extends AbstractProcessor {
+	static final String RESOURCE_NAME = "META-INF/nalbind/injection-index";
+	static final String HEADER = "nalbind-injection-index 1";
+
+	private final Set<String> modulesAlreadyIndexed = new HashSet<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element e: roundEnv.getElementsAnnotatedWith(Injected.class)) {
+			checkValidInjectedMethod((ExecutableElement) e);
+		}
+		for (Element e: roundEnv.getRootElements()) {
+			ModuleElement module = processingEnv.getElementUtils().getModuleOf(e);
+			if (module != null && !module.isUnnamed() && modulesAlreadyIndexed.add(module.getQualifiedName().toString())) {
+				writeIndex(module);
+			}
+		}
+		// Let other processors see the annotations too
+		return false;
+	}
+
+	private void writeIndex(ModuleElement module) {
+		List<TypeElement> providers = new ArrayList<>();
+		for (var provides: ElementFilter.providesIn(module.getDirectives())) {
+			if (provides.getService().getQualifiedName().contentEquals(InjectableSingleton.class.getCanonicalName())) {
+				providers.addAll(provides.getImplementations());
+			}
+		}
+		if (providers.isEmpty()) {
+			return;
+		}
+
+		try (Writer writer = processingEnv.getFiler().createResource(CLASS_OUTPUT, "", RESOURCE_NAME, providers.toArray(new Element[0])).openWriter()) {
+			PrintWriter out = new PrintWriter(writer);
+			out.println(HEADER);
+			for (TypeElement provider: providers) {
+				writeEntry(provider, out);
+			}
+			out.flush();
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(ERROR, "Unable to write injection index: " + e, module);
+		}
+	}
+
+	private void writeEntry(TypeElement type, PrintWriter out) {
+		out.println("singleton " + binaryName(type));
+		ExecutableElement constructor = getSuitableConstructorIfAny(type);
+		if (constructor == null) {
+			return;
+		}
+
+		out.println("constructor");
+		for (VariableElement p: constructor.getParameters()) {
+			if (p.getAnnotation(Now.class) == null) {
+				out.println("parameter " + binaryName(p.asType()));
+			} else {
+				out.println("parameter now " + binaryName(p.asType()));
+			}
+		}
+
+		for (TypeElement c = type; c != null; c = superclass(c)) {
+			for (ExecutableElement m: ElementFilter.methodsIn(c.getEnclosedElements())) {
+				// Invalid methods have already been reported by checkValidInjectedMethod
+				if (m.getAnnotation(Injected.class) != null && m.getParameters().size() == 1) {
+					out.println("injected " + binaryName(c) + " " + m.getSimpleName() + " " + binaryName(m.getParameters().getFirst().asType()));
+				}
+			}
+		}
+
+		for (TypeElement supertype: supertypes(type)) {
+			out.println("alias " + binaryName(supertype));
+		}
+	}
+
+	/**
+	 * Same rules as the injector applies reflectively.
+	 */
+	private static ExecutableElement getSuitableConstructorIfAny(TypeElement type) {
+		List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+		if (constructors.size() == 1) {
+			return constructors.getFirst();
+		} else {
+			var injectConstructors = constructors.stream()
+				.filter(c -> c.getAnnotation(Inject.class) != null)
+				.toList();
+			if (injectConstructors.size() == 1) {
+				return injectConstructors.getFirst();
+			} else {
+				return null;
+			}
+		}
+	}
+
+	private void checkValidInjectedMethod(ExecutableElement method) {
+		if (method.getParameters().size() != 1) {
+			processingEnv.getMessager().printMessage(ERROR, "Expected @" + Injected.class.getSimpleName() + " method to have one parameter", method);
+		} else {
+			TypeMirror pt = processingEnv.getTypeUtils().erasure(method.getParameters().getFirst().asType());
+			if (!"java.util.Collection".equals(binaryName(pt)) && !isListenerInterface(pt)) {
+				processingEnv.getMessager().printMessage(ERROR, "Expected @" + Injected.class.getSimpleName() + " method parameter to be a Collection or a listener interface", method);
+			}
+		}
+	}
+
+	/**
+	 * Same rule as the injector's multicast proxies: an interface whose abstract methods all return void.
+	 */
+	private boolean isListenerInterface(TypeMirror type) {
+		if (!(type instanceof DeclaredType declared) || declared.asElement().getKind() != ElementKind.INTERFACE) {
+			return false;
+		}
+		for (ExecutableElement m: ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers((TypeElement) declared.asElement()))) {
+			if (m.getEnclosingElement().getKind() == ElementKind.INTERFACE
+				&& m.getModifiers().contains(Modifier.ABSTRACT)
+				&& m.getReturnType().getKind() != TypeKind.VOID) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the superclasses of <code>type</code> and all interfaces they implement, excluding {@link Object},
+	 * in the same order the injector would register them.
+	 */
+	private static Set<TypeElement> supertypes(TypeElement type) {
+		Set<TypeElement> result = new LinkedHashSet<>();
+		addSuperinterfaces(type, result);
+		for (TypeElement superclass = superclass(type); superclass != null; superclass = superclass(superclass)) {
+			result.add(superclass);
+			addSuperinterfaces(superclass, result);
+		}
+		return result;
+	}
+
+	private static void addSuperinterfaces(TypeElement typeToScan, Set<TypeElement> result) {
+		for (TypeMirror i: typeToScan.getInterfaces()) {
+			TypeElement element = (TypeElement) ((DeclaredType) i).asElement();
+			result.add(element);
+			addSuperinterfaces(element, result);
+		}
+	}
+
+	/**
+	 * @return null if <code>type</code> has no superclass other than {@link Object}
+	 */
+	private static TypeElement superclass(TypeElement type) {
+		if (type.getSuperclass() instanceof DeclaredType d) {
+			TypeElement result = (TypeElement) d.asElement();
+			if (!result.getQualifiedName().contentEquals(Object.class.getName())) {
+				return result;
+			}
+		}
+		return null;
+	}
+
+	private String binaryName(TypeElement type) {
+		return processingEnv.getElementUtils().getBinaryName(type).toString();
+	}
+
+	/**
+	 * @return the name of the erasure of <code>type</code> in the form accepted by {@link Class#forName}
+	 */
+	private String binaryName(TypeMirror type) {
+		TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+		if (erasure.getKind().isPrimitive()) {
+			return erasure.toString();
+		} else if (erasure instanceof ArrayType a) {
+			return "[" + descriptor(a.getComponentType());
+		} else {
+			return binaryName((TypeElement) ((DeclaredType) erasure).asElement());
+		}
+	}
+
+	private String descriptor(TypeMirror type) {
+		return switch (type.getKind()) {
+			case BOOLEAN -> "Z";
+			case BYTE -> "B";
+			case CHAR -> "C";
+			case SHORT -> "S";
+			case INT -> "I";
+			case LONG -> "J";
+			case FLOAT -> "F";
+			case DOUBLE -> "D";
+			case ARRAY -> "[" + descriptor(((ArrayType) type).getComponentType());
+			default -> {
+				assert type.getKind() == TypeKind.DECLARED;
+				yield "L" + binaryName(type) + ";";
+			}
+		};
+	}
+}
@@ -0,0 +1,192 @@
+package org.elasticsearch.nalbind.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.elasticsearch.nalbind.processor.InjectionIndexProcessor;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.tools.Diagnostic.Kind.ERROR;
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InjectionIndexProcessorTest {
+	static final String MODULE_INFO = """
+		import org.elasticsearch.nalbind.api.InjectableSingleton;
+		module example {
+			requires nalbind.api;
+			provides InjectableSingleton with example.ServiceImpl;
+		}
+		""";
+
+	@Test
+	void indexesProvidedSingleton() throws IOException {
+		var result = compile(Map.of(
+			"module-info", MODULE_INFO,
+			"example/Service", "package example; public interface Service extends BaseService { }",
+			"example/BaseService", "package example; public interface BaseService { }",
+			"example/Other", "package example; public interface Other { }",
+			"example/ServiceImpl", """
+				package example;
+				import java.util.Collection;
+				import org.elasticsearch.nalbind.api.*;
+				public class ServiceImpl extends AbstractService implements Service, InjectableSingleton {
+					public ServiceImpl() { }
+					@Inject public ServiceImpl(Other other, @Now Service[] services, int i) { }
+					@Injected void registerOthers(Collection<Other> others) { }
+				}
+				""",
+			"example/AbstractService", """
+				package example;
+				import java.util.Collection;
+				import org.elasticsearch.nalbind.api.Injected;
+				public abstract class AbstractService {
+					@Injected void registerServices(Collection<? extends Service> services) { }
+				}
+				"""
+		));
+		assertTrue(result.success(), result.errors()::toString);
+		assertEquals("""
+			nalbind-injection-index 1
+			singleton example.ServiceImpl
+			constructor
+			parameter example.Other
+			parameter now [Lexample.Service;
+			parameter int
+			injected example.ServiceImpl registerOthers java.util.Collection
+			injected example.AbstractService registerServices java.util.Collection
+			alias example.Service
+			alias example.BaseService
+			alias org.elasticsearch.nalbind.api.InjectableSingleton
+			alias example.AbstractService
+			""", result.index());
+	}
+
+	@Test
+	void noSuitableConstructor_indexedWithoutConstructor() throws IOException {
+		var result = compile(Map.of(
+			"module-info", MODULE_INFO,
+			"example/ServiceImpl", """
+				package example;
+				import org.elasticsearch.nalbind.api.InjectableSingleton;
+				public class ServiceImpl implements InjectableSingleton {
+					public ServiceImpl() { }
+					public ServiceImpl(String s) { }
+				}
+				"""
+		));
+		assertTrue(result.success(), result.errors()::toString);
+		assertEquals("""
+			nalbind-injection-index 1
+			singleton example.ServiceImpl
+			""", result.index());
+	}
+
+	@Test
+	void invalidInjectedMethod_fails() throws IOException {
+		var result = compile(Map.of(
+			"module-info", MODULE_INFO,
+			"example/ServiceImpl", """
+				package example;
+				import java.util.List;
+				import org.elasticsearch.nalbind.api.*;
+				public class ServiceImpl implements InjectableSingleton {
+					@Injected void registerStuff(List<Object> stuff) { }
+				}
+				"""
+		));
+		assertFalse(result.success());
+		assertEquals(1, result.errors().size());
+		assertTrue(result.errors().getFirst().contains("Collection"), result.errors()::toString);
+	}
+
+	@Test
+	void injectedListenerInterface_onlyWithVoidMethods() throws IOException {
+		var result = compile(Map.of(
+			"module-info", MODULE_INFO,
+			"example/Listener", """
+				package example;
+				public interface Listener {
+					void changed(String what);
+					default boolean wants(String what) { return true; }
+				}
+				""",
+			"example/Supplier", "package example; public interface Supplier { String get(); }",
+			"example/ServiceImpl", """
+				package example;
+				import org.elasticsearch.nalbind.api.*;
+				public class ServiceImpl implements InjectableSingleton {
+					@Injected void registerListener(Listener listener) { }
+					@Injected void registerSupplier(Supplier supplier) { }
+				}
+				"""
+		));
+		assertFalse(result.success());
+		assertEquals(1, result.errors().size(), result.errors()::toString);
+		assertTrue(result.errors().getFirst().contains("listener interface"), result.errors()::toString);
+	}
+
+	record CompilationResult(boolean success, List<String> errors, String index) { }
+
+	private static CompilationResult compile(Map<String, String> sourcesByPath) throws IOException {
+		Path output = Files.createTempDirectory("nalbind-processor-test");
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		var diagnostics = new DiagnosticCollector<JavaFileObject>();
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, UTF_8)) {
+			fileManager.setLocationFromPaths(CLASS_OUTPUT, List.of(output));
+			var sources = sourcesByPath.entrySet().stream()
+				.map(e -> new StringSource(e.getKey(), e.getValue()))
+				.toList();
+			var task = compiler.getTask(null, fileManager, diagnostics, List.of("--module-path", modulePath()), null, sources);
+			task.setProcessors(List.of(new InjectionIndexProcessor()));
+			boolean success = task.call();
+			var errors = diagnostics.getDiagnostics().stream()
+				.filter(d -> d.getKind() == ERROR)
+				.map(d -> d.getMessage(null))
+				.toList();
+			Path indexFile = output.resolve("META-INF/nalbind/injection-index");
+			String index = Files.exists(indexFile) ? Files.readString(indexFile) : null;
+			return new CompilationResult(success, errors, index);
+		}
+	}
+
+	/**
+	 * The entries of our own classpath that javac can use as modules, so it can find <code>nalbind.api</code>.
+	 */
+	private static String modulePath() {
+		return Stream.of(System.getProperty("java.class.path").split(File.pathSeparator))
+			.map(Path::of)
+			.filter(p -> Files.isRegularFile(p) || Files.exists(p.resolve("module-info.class")))
+			.map(Path::toString)
+			.reduce((a, b) -> a + File.pathSeparator + b)
+			.orElse("");
+	}
+
+	private static final class StringSource extends SimpleJavaFileObject {
+		final String code;
+
+		StringSource(String path, String code) {
+			super(URI.create("string:///" + path + Kind.SOURCE.extension), Kind.SOURCE);
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+}